@@ -3,6 +3,7 @@ package com.moyz.adi.chat.controller;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.moyz.adi.common.dto.KbItemDto;
 import com.moyz.adi.common.dto.KbItemEditReq;
+import com.moyz.adi.common.dto.KbItemEmbeddingProgressResp;
 import com.moyz.adi.common.entity.KnowledgeBaseItem;
 import com.moyz.adi.common.service.KnowledgeBaseItemService;
 import jakarta.annotation.Resource;
@@ -37,6 +38,11 @@ public class KnowledgeBaseItemController {
                 .one();
     }
 
+    @GetMapping("/embedding-progress/{uuid}")
+    public KbItemEmbeddingProgressResp embeddingProgress(@PathVariable String uuid) {
+        return knowledgeBaseItemService.getEmbeddingProgress(uuid);
+    }
+
     @PostMapping("/del/{uuid}")
     public boolean softDelete(@PathVariable String uuid) {
         return knowledgeBaseItemService.softDelete(uuid);
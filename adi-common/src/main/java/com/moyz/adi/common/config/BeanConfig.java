@@ -12,23 +12,38 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.moyz.adi.common.base.SearchEngineRespTypeHandler;
 import com.moyz.adi.common.base.UUIDTypeHandler;
+import com.moyz.adi.common.cosntant.AdiConstant;
 import com.moyz.adi.common.dto.SearchEngineResp;
+import com.moyz.adi.common.rag.AdiPgVectorColumnEmbeddingStore;
 import com.moyz.adi.common.rag.ApacheAgeGraphStore;
 import com.moyz.adi.common.rag.EmbeddingRAG;
 import com.moyz.adi.common.rag.GraphRAG;
+import com.moyz.adi.common.rag.PgVectorIndexManager;
+import com.moyz.adi.common.rag.QueryEmbeddingCache;
 import com.moyz.adi.common.util.LocalDateTimeUtil;
 import com.pgvector.PGvector;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.pgvector.PgVectorEmbeddingStore;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.cache.RedisCacheManager;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.http.client.BufferingClientHttpRequestFactory;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
@@ -36,9 +51,12 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.client.RestTemplate;
 
 import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Slf4j
 @Configuration
@@ -53,6 +71,20 @@ public class BeanConfig {
     @Value("${spring.datasource.password}")
     private String dataBasePassword;
 
+    @Value("${spring.cache.redis.key-prefix:}")
+    private String cacheKeyPrefix;
+
+    @Value("${spring.cache.redis.time-to-live:1h}")
+    private Duration cacheTimeToLive;
+
+    private static final String KB_EMBEDDING_TABLE = "adi_knowledge_base_embedding";
+
+    private static final String SEARCH_EMBEDDING_TABLE = "adi_ai_search_embedding";
+
+    private HikariDataSource vectorSearchDataSource;
+
+    private HikariDataSource graphStoreDataSource;
+
     @Bean
     public RestTemplate restTemplate() {
         log.info("Configuration:create restTemplate");
@@ -80,6 +112,42 @@ public class BeanConfig {
         return objectMapper;
     }
 
+    /**
+     * redis发布订阅，用于通知各实例清除本地缓存
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
+    /**
+     * 二级缓存（本地 + redis），替代spring.cache.type=redis自动配置的RedisCacheManager
+     */
+    @Bean
+    public CacheManager cacheManager(RedisConnectionFactory redisConnectionFactory, StringRedisTemplate stringRedisTemplate,
+                                     RedisMessageListenerContainer redisMessageListenerContainer, TwoLevelCacheProperties cacheProperties) {
+        RedisCacheConfiguration defaultConfig = RedisCacheConfiguration.defaultCacheConfig(getClass().getClassLoader())
+                .entryTtl(cacheTimeToLive)
+                .prefixCacheNameWith(cacheKeyPrefix);
+        Map<String, RedisCacheConfiguration> cacheConfigs = new HashMap<>();
+        cacheProperties.getCaches().forEach((name, spec) -> {
+            if (spec.getRedisTtlMinutes() > 0) {
+                cacheConfigs.put(name, defaultConfig.entryTtl(Duration.ofMinutes(spec.getRedisTtlMinutes())));
+            }
+        });
+        RedisCacheManager redisCacheManager = RedisCacheManager.builder(redisConnectionFactory)
+                .cacheDefaults(defaultConfig)
+                .withInitialCacheConfigurations(cacheConfigs)
+                .build();
+        redisCacheManager.afterPropertiesSet();
+        TwoLevelCacheManager cacheManager = new TwoLevelCacheManager(redisCacheManager, stringRedisTemplate, cacheProperties);
+        redisMessageListenerContainer.addMessageListener(cacheManager, new ChannelTopic(TwoLevelCacheManager.INVALIDATE_CHANNEL));
+        log.info("Configuration:create cacheManager,localEnable:{}", cacheProperties.isLocalEnable());
+        return cacheManager;
+    }
+
     @Bean(name = "mainExecutor")
     @Primary
     public AsyncTaskExecutor mainExecutor() {
@@ -101,6 +169,34 @@ public class BeanConfig {
         return executor;
     }
 
+    /**
+     * 知识库召回线程池，所有请求共用，避免每个请求创建线程池导致线程数无限增长
+     */
+    @Bean(name = "retrievalExecutor")
+    public AsyncTaskExecutor retrievalExecutor(RagProperties ragProperties) {
+        RagProperties.Retrieval config = ragProperties.getRetrieval();
+        log.info("retrievalExecutor corePoolSize:{},maxPoolSize:{},queueCapacity:{}", config.getCorePoolSize(), config.getMaxPoolSize(), config.getQueueCapacity());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getCorePoolSize());
+        executor.setMaxPoolSize(config.getMaxPoolSize());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("retrieval-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    /**
+     * 向量索引的创建、重建，单线程依次执行
+     */
+    @Bean(name = "vectorIndexExecutor")
+    public AsyncTaskExecutor vectorIndexExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("vector-index-");
+        return executor;
+    }
+
     @Bean
     @Primary
     public SqlSessionFactory sqlSessionFactory(DataSource dataSource)
@@ -128,115 +224,138 @@ public class BeanConfig {
 
     @Bean(name = "kbEmbeddingStore")
     @Primary
-    public EmbeddingStore<TextSegment> initKbEmbeddingStore() {
-        // 正则表达式匹配
-        String regex = "jdbc:postgresql://([^:/]+):(\\d+)/(\\w+).+";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(dataBaseUrl);
-
-        String host = "";
-        String port = "";
-        String databaseName = "";
-        if (matcher.matches()) {
-            host = matcher.group(1);
-            port = matcher.group(2);
-            databaseName = matcher.group(3);
-
-            log.info("Host: " + host);
-            log.info("Port: " + port);
-            log.info("Database: " + databaseName);
-        } else {
-            throw new RuntimeException("parse url error");
-        }
-        return PgVectorEmbeddingStore.builder()
-                .host(host)
-                .port(Integer.parseInt(port))
-                .database(databaseName)
-                .user(dataBaseUserName)
-                .password(dataBasePassword)
-                .dimension(384)
-                .createTable(true)
-                .dropTableFirst(false)
-                .table("adi_knowledge_base_embedding")
-                .build();
+    public EmbeddingStore<TextSegment> initKbEmbeddingStore(RagProperties ragProperties) {
+        return createEmbeddingStore(ragProperties, KB_EMBEDDING_TABLE, List.of(AdiConstant.MetadataKey.KB_UUID, AdiConstant.MetadataKey.KB_ITEM_UUID));
     }
 
     @Bean
     @Primary
-    public EmbeddingRAG initKnowledgeBaseRAGService(EmbeddingStore<TextSegment> kbEmbeddingStore) {
-        EmbeddingRAG ragService = new EmbeddingRAG(kbEmbeddingStore);
+    public EmbeddingRAG initKnowledgeBaseRAGService(EmbeddingStore<TextSegment> kbEmbeddingStore, DataSource dataSource, RagProperties ragProperties,
+                                                    PgVectorIndexManager vectorIndexManager, QueryEmbeddingCache queryEmbeddingCache) {
+        EmbeddingRAG ragService = createEmbeddingRAG(kbEmbeddingStore, dataSource, ragProperties, KB_EMBEDDING_TABLE, vectorIndexManager, queryEmbeddingCache);
         ragService.init();
         return ragService;
     }
 
     @Bean(name = "searchEmbeddingStore")
-    public EmbeddingStore<TextSegment> initSearchEmbeddingStore() {
-        // 正则表达式匹配
-        String regex = "jdbc:postgresql://([^:/]+):(\\d+)/(\\w+).+";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(dataBaseUrl);
-
-        String host = "";
-        String port = "";
-        String databaseName = "";
-        if (matcher.matches()) {
-            host = matcher.group(1);
-            port = matcher.group(2);
-            databaseName = matcher.group(3);
-
-            log.info("Host: " + host);
-            log.info("Port: " + port);
-            log.info("Database: " + databaseName);
-        } else {
-            throw new RuntimeException("parse url error");
-        }
-        return PgVectorEmbeddingStore.builder()
-                .host(host)
-                .port(Integer.parseInt(port))
-                .database(databaseName)
-                .user(dataBaseUserName)
-                .password(dataBasePassword)
+    public EmbeddingStore<TextSegment> initSearchEmbeddingStore(RagProperties ragProperties) {
+        return createEmbeddingStore(ragProperties, SEARCH_EMBEDDING_TABLE, List.of(AdiConstant.MetadataKey.SEARCH_UUID));
+    }
+
+    @Bean(name = "searchRagService")
+    public EmbeddingRAG initSearchRAG(@Qualifier("searchEmbeddingStore") EmbeddingStore<TextSegment> searchEmbeddingStore, DataSource dataSource, RagProperties ragProperties,
+                                     PgVectorIndexManager vectorIndexManager, QueryEmbeddingCache queryEmbeddingCache) {
+        EmbeddingRAG ragService = createEmbeddingRAG(searchEmbeddingStore, dataSource, ragProperties, SEARCH_EMBEDDING_TABLE, vectorIndexManager, queryEmbeddingCache);
+        ragService.init();
+        return ragService;
+    }
+
+    /**
+     * 向量索引管理，依赖向量表已创建
+     */
+    @Bean
+    public PgVectorIndexManager vectorIndexManager(DataSource dataSource, RagProperties ragProperties,
+                                                   EmbeddingStore<TextSegment> kbEmbeddingStore, @Qualifier("searchEmbeddingStore") EmbeddingStore<TextSegment> searchEmbeddingStore,
+                                                   @Qualifier("vectorIndexExecutor") AsyncTaskExecutor vectorIndexExecutor) {
+        PgVectorIndexManager indexManager = new PgVectorIndexManager(dataSource, ragProperties.getVectorIndex(), List.of(KB_EMBEDDING_TABLE, SEARCH_EMBEDDING_TABLE), vectorIndexExecutor);
+        indexManager.init();
+        return indexManager;
+    }
+
+    /**
+     * 查询向量缓存，知识库及搜索的召回共用
+     */
+    @Bean
+    public QueryEmbeddingCache queryEmbeddingCache(RagProperties ragProperties) {
+        RagProperties.QueryEmbeddingCache config = ragProperties.getQueryEmbeddingCache();
+        return new QueryEmbeddingCache(config.getMaxSizeInMb(), config.getTtlInMinutes());
+    }
+
+    /**
+     * 向量表及{metadataColumns}对应的生成列在docs/create.sql中创建(表不存在时由PgVectorEmbeddingStore创建)，生成列用于过滤及删除
+     */
+    private EmbeddingStore<TextSegment> createEmbeddingStore(RagProperties ragProperties, String table, List<String> metadataColumns) {
+        DataSource dataSource = getVectorSearchDataSource(ragProperties);
+        EmbeddingStore<TextSegment> pgVectorEmbeddingStore = PgVectorEmbeddingStore.datasourceBuilder()
+                .datasource(dataSource)
                 .dimension(384)
                 .createTable(true)
                 .dropTableFirst(false)
-                .table("adi_ai_search_embedding")
+                .useIndex(false)
+                .table(table)
                 .build();
+        AdiPgVectorColumnEmbeddingStore embeddingStore = new AdiPgVectorColumnEmbeddingStore(pgVectorEmbeddingStore, dataSource, table, metadataColumns);
+        embeddingStore.init();
+        return embeddingStore;
     }
 
-    @Bean(name = "searchRagService")
-    public EmbeddingRAG initSearchRAG(EmbeddingStore<TextSegment> searchEmbeddingStore) {
-        EmbeddingRAG ragService = new EmbeddingRAG(searchEmbeddingStore);
-        ragService.init();
+    /**
+     * 向量搜索、图存储专用连接池不是bean，需自行关闭
+     */
+    @PreDestroy
+    public void destroy() {
+        if (null != vectorSearchDataSource) {
+            vectorSearchDataSource.close();
+        }
+        if (null != graphStoreDataSource) {
+            graphStoreDataSource.close();
+        }
+    }
+
+    /**
+     * 向量搜索专用连接池，连接初始化时设置hnsw.ef_search、ivfflat.probes等搜索参数
+     * <br/>不注册为bean，以免影响spring默认数据源的自动配置
+     */
+    private synchronized DataSource getVectorSearchDataSource(RagProperties ragProperties) {
+        if (null == vectorSearchDataSource) {
+            RagProperties.VectorIndex vectorIndex = ragProperties.getVectorIndex();
+            vectorSearchDataSource = new HikariDataSource(createHikariConfig("vector-search-pool", vectorIndex.getSearchPoolSize(), PgVectorIndexManager.searchSessionSql(vectorIndex)));
+        }
+        return vectorSearchDataSource;
+    }
+
+    /**
+     * 独立连接池配置，与spring默认数据源使用相同的数据库及账号
+     */
+    private HikariConfig createHikariConfig(String poolName, int maxPoolSize, String connectionInitSql) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(poolName);
+        hikariConfig.setJdbcUrl(dataBaseUrl);
+        hikariConfig.setUsername(dataBaseUserName);
+        hikariConfig.setPassword(dataBasePassword);
+        hikariConfig.setMaximumPoolSize(maxPoolSize);
+        hikariConfig.setMinimumIdle(1);
+        hikariConfig.setConnectionInitSql(connectionInitSql);
+        return hikariConfig;
+    }
+
+    private EmbeddingRAG createEmbeddingRAG(EmbeddingStore<TextSegment> embeddingStore, DataSource dataSource, RagProperties ragProperties, String table,
+                                            PgVectorIndexManager vectorIndexManager, QueryEmbeddingCache queryEmbeddingCache) {
+        RagProperties.EmbeddingIngest embeddingIngest = ragProperties.getEmbeddingIngest();
+        EmbeddingRAG ragService;
+        if (embeddingIngest.isBulkEnable()) {
+            ragService = new EmbeddingRAG(embeddingStore, dataSource, table, embeddingIngest.getBatchSize());
+        } else {
+            ragService = new EmbeddingRAG(embeddingStore);
+        }
+        ragService.setIndexManager(vectorIndexManager);
+        if (ragProperties.getQueryEmbeddingCache().isEnable()) {
+            ragService.setQueryEmbeddingCache(queryEmbeddingCache);
+        }
         return ragService;
     }
 
     @Bean(name = "kbGraphStore")
     @Primary
-    public ApacheAgeGraphStore initApacheAgeGraphStore() {
-        String regex = "jdbc:postgresql://([^:/]+):(\\d+)/(\\w+).+";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(dataBaseUrl);
-
-        String host = "";
-        String port = "";
-        String databaseName = "";
-        if (matcher.matches()) {
-            host = matcher.group(1);
-            port = matcher.group(2);
-            databaseName = matcher.group(3);
-
-            log.info("Host: " + host);
-            log.info("Port: " + port);
-            log.info("Database: " + databaseName);
-        } else {
-            throw new RuntimeException("parse url error");
-        }
+    public ApacheAgeGraphStore initApacheAgeGraphStore(RagProperties ragProperties) {
+        RagProperties.GraphStore graphStore = ragProperties.getGraphStore();
+        HikariConfig hikariConfig = createHikariConfig("age-graph-pool", graphStore.getMaxPoolSize(), ApacheAgeGraphStore.SESSION_INIT_SQL);
+        hikariConfig.setMinimumIdle(graphStore.getMinIdle());
+        hikariConfig.setConnectionTimeout(graphStore.getConnectionTimeout());
+        hikariConfig.setLeakDetectionThreshold(graphStore.getLeakDetectionThreshold());
+        graphStoreDataSource = new HikariDataSource(hikariConfig);
         return ApacheAgeGraphStore.builder()
-                .host(host)
-                .port(Integer.parseInt(port))
-                .database(databaseName)
-                .user(dataBaseUserName)
-                .password(dataBasePassword)
+                .dataSource(graphStoreDataSource)
                 .createGraph(true)
                 .dropGraphFirst(false)
                 .graphName("adi_knowledge_base_graph")
@@ -245,8 +364,22 @@ public class BeanConfig {
 
     @Bean(name = "graphRag")
     @Primary
-    public GraphRAG initGraphRAG(ApacheAgeGraphStore kbGraphStore) {
-        return new GraphRAG(kbGraphStore);
+    public GraphRAG initGraphRAG(ApacheAgeGraphStore kbGraphStore, RagProperties ragProperties, @Qualifier("graphExtractExecutor") AsyncTaskExecutor graphExtractExecutor) {
+        return new GraphRAG(kbGraphStore, ragProperties.getGraphExtract(), graphExtractExecutor);
+    }
+
+    /**
+     * 图谱抽取线程池，所有文档共用，限制同时请求LLM抽取实体及关系的数量
+     */
+    @Bean(name = "graphExtractExecutor")
+    public AsyncTaskExecutor graphExtractExecutor(RagProperties ragProperties) {
+        int concurrency = ragProperties.getGraphExtract().getConcurrency();
+        log.info("graphExtractExecutor concurrency:{}", concurrency);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("graph-extract-");
+        return executor;
     }
 
 //    @Bean(name = "queryRouterRagService")
@@ -0,0 +1,214 @@
+package com.moyz.adi.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * RAG相关配置
+ */
+@Configuration
+@ConfigurationProperties("adi.rag")
+@Data
+public class RagProperties {
+
+    private EmbeddingIngest embeddingIngest = new EmbeddingIngest();
+
+    private VectorIndex vectorIndex = new VectorIndex();
+
+    private QueryEmbeddingCache queryEmbeddingCache = new QueryEmbeddingCache();
+
+    private GraphStore graphStore = new GraphStore();
+
+    private GraphExtract graphExtract = new GraphExtract();
+
+    private Retrieval retrieval = new Retrieval();
+
+    private QueryCompression queryCompression = new QueryCompression();
+
+    /**
+     * 向量批量入库
+     */
+    @Data
+    public static class EmbeddingIngest {
+
+        /**
+         * 是否使用批量入库（关闭时整个文档向量化后通过EmbeddingStore写入）
+         */
+        private boolean bulkEnable = true;
+
+        /**
+         * 每批向量化及写入数据库的文本段数量
+         */
+        private int batchSize = 64;
+    }
+
+    /**
+     * 向量索引
+     */
+    @Data
+    public static class VectorIndex {
+
+        /**
+         * 索引类型: hnsw, ivfflat, none
+         */
+        private String type = "hnsw";
+
+        /**
+         * hnsw: 每个节点的最大连接数
+         */
+        private int hnswM = 16;
+
+        /**
+         * hnsw: 构建索引时的候选列表大小
+         */
+        private int hnswEfConstruction = 64;
+
+        /**
+         * hnsw: 查询时的候选列表大小，在搜索会话中设置
+         */
+        private int hnswEfSearch = 40;
+
+        /**
+         * ivfflat: 查询时探测的list数量，在搜索会话中设置
+         */
+        private int ivfflatProbes = 10;
+
+        /**
+         * 带过滤条件搜索时的迭代扫描方式(pgvector 0.8.0及以上)：off, strict_order, relaxed_order；为空时不设置
+         * <br/>过滤条件命中的数据较少时，开启后可避免向量索引返回的结果被过滤后数量不足
+         */
+        private String iterativeScan = "";
+
+        /**
+         * ivfflat: 数据量少于该值时不创建索引（在空表上创建ivfflat索引会导致召回率很差）
+         */
+        private long ivfflatMinRows = 10000;
+
+        /**
+         * ivfflat: 是否根据数据量定时重新计算lists并重建索引
+         */
+        private boolean ivfflatAutoTune = true;
+
+        /**
+         * 单个文档的文本段数量达到该值时，入库前删除索引、入库后并发重建索引；0表示不启用
+         */
+        private int rebuildOnBulkLoadThreshold = 0;
+
+        /**
+         * 向量搜索连接池大小
+         */
+        private int searchPoolSize = 10;
+    }
+
+    /**
+     * 查询文本的向量缓存
+     */
+    @Data
+    public static class QueryEmbeddingCache {
+
+        private boolean enable = true;
+
+        /**
+         * 缓存占用的最大内存（按向量及文本大小估算），单位MB
+         */
+        private int maxSizeInMb = 64;
+
+        /**
+         * 缓存有效期，单位分钟
+         */
+        private int ttlInMinutes = 60;
+    }
+
+    /**
+     * 图数据库(Apache AGE)连接池
+     */
+    @Data
+    public static class GraphStore {
+
+        private int maxPoolSize = 10;
+
+        private int minIdle = 1;
+
+        /**
+         * 获取连接的超时时间，单位毫秒
+         */
+        private long connectionTimeout = 10000;
+
+        /**
+         * 连接借出超过该时间未归还时输出泄漏告警，单位毫秒；0表示不检测
+         */
+        private long leakDetectionThreshold = 60000;
+    }
+
+    /**
+     * 知识图谱抽取
+     */
+    @Data
+    public static class GraphExtract {
+
+        /**
+         * 同时请求LLM抽取实体及关系的最大数量（所有文档共用）
+         */
+        private int concurrency = 4;
+
+        /**
+         * 按文本段顺序每凑够该数量的抽取结果写入一次图数据库
+         */
+        private int storeBatchSize = 16;
+
+        /**
+         * 图谱化状态超过该时间(分钟)没有进展时视为中断，允许重新发起并从断点继续
+         */
+        private int staleInMinutes = 30;
+    }
+
+    /**
+     * 召回线程池（所有请求共用）
+     */
+    @Data
+    public static class Retrieval {
+
+        private int corePoolSize = 16;
+
+        private int maxPoolSize = 64;
+
+        /**
+         * 等待队列长度，线程及队列都满时由请求线程自己执行召回
+         */
+        private int queueCapacity = 256;
+
+        /**
+         * 多个召回器并行召回时，单个召回器的超时时间，超时的召回器结果视为空，其他召回器的结果正常返回；单位毫秒，0表示不限制
+         */
+        private long retrieverTimeoutMillis = 15000;
+    }
+
+    /**
+     * 有历史记录时的查询压缩（结合历史记录将问题改写为独立的问题，需额外请求一次LLM）
+     */
+    @Data
+    public static class QueryCompression {
+        /**
+         * always: 有历史记录时总是压缩; adaptive: 问题较短或包含指代词时才压缩; never: 不压缩
+         */
+        private String mode = "adaptive";
+
+        /**
+         * 用于压缩的模型名称，为空时使用当前对话的模型，建议配置一个速度较快的小模型
+         */
+        private String modelName = "";
+
+        /**
+         * adaptive模式下，问题长度不小于该值且不包含指代词时视为独立的问题，不压缩
+         */
+        private int minSelfContainedLength = 12;
+
+        /**
+         * 压缩结果缓存的最大条数，0表示不缓存
+         */
+        private int cacheMaxSize = 10000;
+
+        private int cacheTtlInMinutes = 30;
+    }
+}
@@ -0,0 +1,36 @@
+package com.moyz.adi.common.config;
+
+import com.moyz.adi.common.vo.RequestRateLimit;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 请求限流配置，用户维度的次数及时间窗口见系统配置 request_text_rate_limit、request_image_rate_limit
+ */
+@Configuration
+@ConfigurationProperties("adi.rate-limit")
+@Data
+public class RateLimitProperties {
+
+    public static final String MODE_SLIDING_WINDOW = "sliding-window";
+    public static final String MODE_TOKEN_BUCKET = "token-bucket";
+
+    /**
+     * sliding-window: 滑动窗口，任意时间窗口内的请求次数不超过限制; token-bucket: 令牌桶，允许短时突发，平均速率不超过限制
+     */
+    private String mode = MODE_SLIDING_WINDOW;
+
+    /**
+     * 被拒绝的用户在本地记录解封时间，解封前不再访问redis
+     */
+    private boolean localBlockEnable = true;
+
+    /**
+     * 按模型限流（每个用户对单个模型），key: 模型名称，value: 时间窗口(minutes)内的最大请求次数(times)
+     */
+    private Map<String, RequestRateLimit> models = new HashMap<>();
+}
@@ -0,0 +1,135 @@
+package com.moyz.adi.common.config;
+
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * 二级缓存：本地缓存(L1) + redis(L2)
+ * <ul>
+ *     <li>读：先读本地缓存，未命中时读redis并写入本地缓存</li>
+ *     <li>sync=true的读取：同一个key在本实例内只有一个线程执行加载，其他线程等待其结果</li>
+ *     <li>写、删除：先修改redis再修改本地缓存，并通知其他实例删除本地缓存</li>
+ * </ul>
+ */
+public class TwoLevelCache implements Cache {
+
+    private final String name;
+
+    private final Cache remote;
+
+    private final com.google.common.cache.Cache<String, ValueWrapper> local;
+
+    /**
+     * 通知其他实例删除本地缓存，参数：缓存名称，key(为空表示清空)
+     */
+    private final BiConsumer<String, String> invalidatePublisher;
+
+    public TwoLevelCache(String name, Cache remote, com.google.common.cache.Cache<String, ValueWrapper> local, BiConsumer<String, String> invalidatePublisher) {
+        this.name = name;
+        this.remote = remote;
+        this.local = local;
+        this.invalidatePublisher = invalidatePublisher;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return remote.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String localKey = localKey(key);
+        ValueWrapper wrapper = local.getIfPresent(localKey);
+        if (null != wrapper) {
+            return wrapper;
+        }
+        wrapper = remote.get(key);
+        if (null != wrapper) {
+            local.put(localKey, wrapper);
+        }
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        if (null == wrapper) {
+            return null;
+        }
+        Object value = wrapper.get();
+        if (null != value && null != type && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        try {
+            ValueWrapper wrapper = local.get(localKey(key), () -> {
+                ValueWrapper remoteWrapper = remote.get(key);
+                if (null != remoteWrapper) {
+                    return remoteWrapper;
+                }
+                T value = valueLoader.call();
+                remote.put(key, value);
+                return new SimpleValueWrapper(value);
+            });
+            return (T) wrapper.get();
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new ValueRetrievalException(key, valueLoader, e.getCause());
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        remote.put(key, value);
+        String localKey = localKey(key);
+        local.put(localKey, new SimpleValueWrapper(value));
+        invalidatePublisher.accept(name, localKey);
+    }
+
+    @Override
+    public void evict(Object key) {
+        remote.evict(key);
+        String localKey = localKey(key);
+        local.invalidate(localKey);
+        invalidatePublisher.accept(name, localKey);
+    }
+
+    @Override
+    public void clear() {
+        remote.clear();
+        local.invalidateAll();
+        invalidatePublisher.accept(name, null);
+    }
+
+    /**
+     * 收到其他实例的通知时删除本地缓存
+     *
+     * @param localKey 为空时清空
+     */
+    public void invalidateLocal(String localKey) {
+        if (null == localKey) {
+            local.invalidateAll();
+        } else {
+            local.invalidate(localKey);
+        }
+    }
+
+    private static String localKey(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,99 @@
+package com.moyz.adi.common.config;
+
+import com.google.common.cache.CacheBuilder;
+import com.moyz.adi.common.util.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在redis缓存前增加本地缓存，本地缓存的失效通过redis pub/sub通知到所有实例
+ */
+@Slf4j
+public class TwoLevelCacheManager implements CacheManager, MessageListener {
+
+    public static final String INVALIDATE_CHANNEL = "channel:cache:invalidate";
+
+    private static final String MSG_INSTANCE = "instance";
+    private static final String MSG_CACHE = "cache";
+    private static final String MSG_KEY = "key";
+
+    /**
+     * 本实例的标识，忽略自己发出的通知
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final CacheManager remoteCacheManager;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final TwoLevelCacheProperties properties;
+
+    private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public TwoLevelCacheManager(CacheManager remoteCacheManager, StringRedisTemplate stringRedisTemplate, TwoLevelCacheProperties properties) {
+        this.remoteCacheManager = remoteCacheManager;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, this::createCache);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return remoteCacheManager.getCacheNames();
+    }
+
+    private Cache createCache(String name) {
+        Cache remote = remoteCacheManager.getCache(name);
+        TwoLevelCacheProperties.Spec spec = properties.getSpec(name);
+        if (null == remote || !properties.isLocalEnable() || spec.getLocalMaxSize() <= 0) {
+            return remote;
+        }
+        return new TwoLevelCache(name, remote,
+                CacheBuilder.newBuilder()
+                        .maximumSize(spec.getLocalMaxSize())
+                        .expireAfterWrite(spec.getLocalTtlSeconds(), TimeUnit.SECONDS)
+                        .build(),
+                this::publishInvalidate);
+    }
+
+    private void publishInvalidate(String cacheName, String localKey) {
+        Map<String, String> msg = new HashMap<>();
+        msg.put(MSG_INSTANCE, instanceId);
+        msg.put(MSG_CACHE, cacheName);
+        msg.put(MSG_KEY, localKey);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, JsonUtil.toJson(msg));
+        } catch (Exception e) {
+            //通知失败时其他实例的本地缓存在过期后失效
+            log.error("publish cache invalidate message error,cache:{},key:{}", cacheName, localKey, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Map<?, ?> msg = JsonUtil.fromJson(new String(message.getBody(), StandardCharsets.UTF_8), Map.class);
+        if (null == msg || instanceId.equals(msg.get(MSG_INSTANCE))) {
+            return;
+        }
+        Cache cache = caches.get((String) msg.get(MSG_CACHE));
+        if (cache instanceof TwoLevelCache twoLevelCache) {
+            twoLevelCache.invalidateLocal((String) msg.get(MSG_KEY));
+        }
+    }
+}
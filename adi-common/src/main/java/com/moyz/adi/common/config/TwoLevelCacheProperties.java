@@ -0,0 +1,54 @@
+package com.moyz.adi.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 二级缓存（本地 + redis）配置，redis的key前缀及默认过期时间沿用spring.cache.redis
+ */
+@Configuration
+@ConfigurationProperties("adi.cache")
+@Data
+public class TwoLevelCacheProperties {
+
+    /**
+     * 是否启用本地缓存，不启用时只使用redis
+     */
+    private boolean localEnable = true;
+
+    /**
+     * 未单独配置的缓存使用的默认值
+     */
+    private Spec defaultSpec = new Spec();
+
+    /**
+     * 按缓存名称单独配置，key: 缓存名称(cacheNames)
+     */
+    private Map<String, Spec> caches = new HashMap<>();
+
+    public Spec getSpec(String cacheName) {
+        return caches.getOrDefault(cacheName, defaultSpec);
+    }
+
+    @Data
+    public static class Spec {
+        /**
+         * 本地缓存的过期时间(秒)
+         */
+        private long localTtlSeconds = 60;
+
+        /**
+         * 本地缓存的最大条数，0表示该缓存不使用本地缓存
+         */
+        private long localMaxSize = 1000;
+
+        /**
+         * redis中的过期时间(分钟)，0表示使用spring.cache.redis.time-to-live
+         */
+        private long redisTtlMinutes = 0;
+    }
+}
@@ -34,10 +34,42 @@ public class RedisKeyConstant {
     /**
      * 登录token
      * {0}:用户token
-     * 值：json.format(user)
+     * 值：json.format(UserSession)
      */
     public static final String USER_TOKEN = "user:token:{0}";
 
+    /**
+     * 用户的登录token集合（set），修改密码、冻结时清除该用户所有的登录token
+     * {0}:用户id
+     */
+    public static final String USER_TOKENS = "user:tokens:{0}";
+
+    /**
+     * 登录token失效通知（pub/sub），消息：以逗号分隔的token
+     */
+    public static final String USER_TOKEN_INVALIDATE_CHANNEL = "channel:user:token:invalidate";
+
+    /**
+     * 已把旧版本创建的登录token补充到{@link #USER_TOKENS}的标记，只需执行一次
+     */
+    public static final String USER_TOKENS_BACKFILLED = "user:token-set:backfilled";
+
+    /**
+     * 补充登录token集合的锁，避免多个实例同时执行
+     */
+    public static final String USER_TOKENS_BACKFILL_LOCK = "user:token-set:backfill-lock";
+
+    /**
+     * 配置的版本号（hash），每次修改加1，各实例据此判断是否漏收了变更通知
+     * 值: 配置类型(sys-config、ai-model) -> 版本号
+     */
+    public static final String CONFIG_VERSION = "config:version";
+
+    /**
+     * 配置变更通知（pub/sub），消息：{@link com.moyz.adi.common.vo.ConfigChangeMessage}
+     */
+    public static final String CONFIG_CHANGE_CHANNEL = "channel:config:change";
+
     /**
      * 参数：游客的uuid
      * 值：json.format(guest)
@@ -68,12 +100,18 @@ public class RedisKeyConstant {
     /**
      * 用户提问限流计数
      * 参数：用户id
-     * 值: 当前时间窗口访问量
+     * 值: 见{@link com.moyz.adi.common.helper.RateLimitHelper}，滑动窗口为zset(加后缀:sw)，令牌桶为hash(加后缀:tb)
      */
     public static final String USER_REQUEST_TEXT_TIMES = "user:request-text:times:{0}";
 
     public static final String USER_REQUEST_IMAGE_TIMES = "user:request-image:times:{0}";
 
+    /**
+     * 用户对单个模型的提问限流计数
+     * 参数：用户id,模型名称
+     */
+    public static final String USER_REQUEST_MODEL_TIMES = "user:request-model:times:{0}:{1}";
+
     /**
      * 用户信息缓存
      * 参数：用户id
@@ -102,11 +140,32 @@ public class RedisKeyConstant {
     public static final String QA_ITEM_CREATE_LIMIT = "aq:item:create:{0}";
 
     /**
-     * 信号(重新生成知识库统计数据)
+     * 信号(知识库统计数据有待合并的增量)
      * 值:知识库uuid
      */
     public static final String KB_STATISTIC_RECALCULATE_SIGNAL = "kb:statistic:recalculate:signal";
 
+    /**
+     * 知识库统计数据的增量（hash）
+     * 参数：知识库uuid
+     * 值: 统计字段 -> 增量
+     */
+    public static final String KB_STATISTIC_DELTA = "kb:statistic:delta:{0}";
+
+    /**
+     * 用户当天的消耗（hash），过期后从adi_user_day_cost重新加载
+     * 参数：用户id,是否免费额度,日期(yyyyMMdd)
+     * 值: tokens、requests、draws -> 累计值
+     */
+    public static final String USER_DAY_COST = "user:cost:day:{0}:{1}:{2}";
+
+    /**
+     * 用户当月的消耗（hash），过期后从adi_user_day_cost重新加载
+     * 参数：用户id,是否免费额度,月份(yyyyMM)
+     * 值: tokens、requests、draws -> 累计值
+     */
+    public static final String USER_MONTH_COST = "user:cost:month:{0}:{1}:{2}";
+
     public static final String STATISTIC = "statistic";
     public static final String STATISTIC_USER = "user";
     public static final String STATISTIC_KNOWLEDGE_BASE = "kb";
@@ -114,14 +173,19 @@ public class RedisKeyConstant {
     public static final String STATISTIC_CONVERSATION = "conversation";
     public static final String STATISTIC_IMAGE_COST = "image-cost";
 
-    public static final String TOKEN_USAGE_KEY = "token:usage:{0}";
-
     /**
      * 用户正在对文档进行索引
      * 值：用户id
      */
     public static final String USER_INDEXING = "user:indexing:{0}";
 
+    /**
+     * 知识点向量化进度
+     * 参数：知识点uuid
+     * 值：json.format(KbItemEmbeddingProgressResp)
+     */
+    public static final String KB_ITEM_EMBEDDING_PROGRESS = "kb:item:embedding:progress:{0}";
+
     /**
      * 用户评论并发限制
      * 值：用户id
@@ -0,0 +1,15 @@
+package com.moyz.adi.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class KbItemEmbeddingProgressResp {
+
+    private int embeddedCount;
+
+    private int totalCount;
+}
@@ -42,6 +42,18 @@ public class KnowledgeBase extends BaseEntity {
     @TableField("embedding_count")
     private Integer embeddingCount;
 
+    @Schema(title = "字符数")
+    @TableField("char_count")
+    private Long charCount;
+
+    @Schema(title = "图谱顶点数")
+    @TableField("graph_vertex_count")
+    private Integer graphVertexCount;
+
+    @Schema(title = "图谱边数")
+    @TableField("graph_edge_count")
+    private Integer graphEdgeCount;
+
     @Schema(title = "所属人uuid")
     @TableField("owner_uuid")
     private String ownerUuid;
@@ -2,6 +2,7 @@ package com.moyz.adi.common.entity;
 
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.moyz.adi.common.enums.GraphSegmentExtractStatusEnum;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
 
@@ -23,6 +24,22 @@ public class KnowledgeBaseGraphSegment extends BaseEntity {
     @TableField("remark")
     private String remark;
 
+    @Schema(title = "文本块在知识点中的序号")
+    @TableField("segment_index")
+    private Integer segmentIndex;
+
+    @Schema(title = "抽取状态")
+    @TableField("extract_status")
+    private GraphSegmentExtractStatusEnum extractStatus;
+
+    @Schema(title = "LLM抽取的实体及关系")
+    @TableField("llm_response")
+    private String llmResponse;
+
+    @Schema(title = "抽取使用的模型id")
+    @TableField("ai_model_id")
+    private Long aiModelId;
+
     @Schema(title = "创建用户id")
     @TableField("user_id")
     private Long userId;
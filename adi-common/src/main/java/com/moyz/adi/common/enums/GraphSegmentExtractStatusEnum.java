@@ -0,0 +1,21 @@
+package com.moyz.adi.common.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+@Getter
+@AllArgsConstructor
+public enum GraphSegmentExtractStatusEnum implements BaseEnum {
+    WAITING(1, "待抽取"),
+    EXTRACTED(2, "已抽取"),
+    STORED(3, "已写入图谱");
+
+    private final Integer value;
+    private final String desc;
+
+    public static GraphSegmentExtractStatusEnum getByValue(Integer val) {
+        return Arrays.stream(GraphSegmentExtractStatusEnum.values()).filter(item -> item.value.equals(val)).findFirst().orElse(null);
+    }
+}
@@ -2,9 +2,8 @@ package com.moyz.adi.common.filter;
 
 import com.moyz.adi.common.base.ThreadContext;
 import com.moyz.adi.common.cosntant.AdiConstant;
-import com.moyz.adi.common.cosntant.RedisKeyConstant;
 import com.moyz.adi.common.entity.User;
-import com.moyz.adi.common.util.JsonUtil;
+import com.moyz.adi.common.helper.UserSessionHelper;
 import io.micrometer.common.util.StringUtils;
 import jakarta.annotation.Resource;
 import jakarta.servlet.FilterChain;
@@ -13,12 +12,10 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.text.MessageFormat;
 
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
 
@@ -44,7 +41,7 @@ public class TokenFilter extends OncePerRequestFilter {
     };
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private UserSessionHelper userSessionHelper;
 
     @Value("${server.servlet.context-path:}")
     private String contextPath;
@@ -57,17 +54,9 @@ public class TokenFilter extends OncePerRequestFilter {
             token = request.getParameter("token");
         }
         if (StringUtils.isNotBlank(token)) {
-            String tokenKey = MessageFormat.format(RedisKeyConstant.USER_TOKEN, token);
-            String userJson = stringRedisTemplate.opsForValue().get(tokenKey);
-            if (StringUtils.isBlank(userJson)) {
-                log.warn("未登录:{}", requestUri);
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-
-            User user = JsonUtil.fromJson(userJson, User.class);
+            User user = userSessionHelper.getUser(token);
             if (null == user) {
-                log.warn("用户不存在:{}", requestUri);
+                log.warn("未登录:{}", requestUri);
                 response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             }
@@ -0,0 +1,170 @@
+package com.moyz.adi.common.helper;
+
+import com.moyz.adi.common.enums.ErrorEnum;
+import com.moyz.adi.common.exception.BaseException;
+import com.moyz.adi.common.util.JsonUtil;
+import com.moyz.adi.common.vo.ConfigChangeMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.CONFIG_CHANGE_CHANNEL;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.CONFIG_VERSION;
+
+/**
+ * 配置变更通知
+ * <ul>
+ *     <li>修改配置后版本号加1，并通过redis pub/sub通知所有实例只重新加载修改的配置项</li>
+ *     <li>收到的版本号不连续(漏收了通知)时重新加载全部配置</li>
+ *     <li>pub/sub不保证送达，{@link #checkVersions()}定时比较版本号作为兜底</li>
+ *     <li>版本号增加失败时抛出异常，由修改方提示管理员；另外{@link #reloadAll()}以较长的间隔全部重新加载作为最后的兜底</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ConfigChangeHelper {
+
+    public static final String TYPE_SYS_CONFIG = "sys-config";
+    public static final String TYPE_AI_MODEL = "ai-model";
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    /**
+     * key: 配置类型, value: 重新加载的方法，参数为修改的配置项，为null时重新加载全部
+     */
+    private final Map<String, Consumer<Set<String>>> reloaders = new ConcurrentHashMap<>();
+
+    /**
+     * 本实例已加载的版本
+     */
+    private final Map<String, AtomicLong> localVersions = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            ConfigChangeMessage changeMessage = JsonUtil.fromJson(new String(message.getBody(), StandardCharsets.UTF_8), ConfigChangeMessage.class);
+            if (null == changeMessage || instanceId.equals(changeMessage.getInstanceId())) {
+                return;
+            }
+            onChange(changeMessage.getType(), changeMessage.getVersion(), changeMessage.getKeys());
+        }, new ChannelTopic(CONFIG_CHANGE_CHANNEL));
+    }
+
+    /**
+     * 注册配置的加载方法，注册后由调用方完成首次加载
+     *
+     * @param type     配置类型
+     * @param reloader 重新加载的方法，参数为修改的配置项，为null时重新加载全部
+     */
+    public void register(String type, Consumer<Set<String>> reloader) {
+        localVersions.computeIfAbsent(type, k -> new AtomicLong()).set(getRemoteVersion(type));
+        reloaders.put(type, reloader);
+    }
+
+    /**
+     * 本实例已修改并重新加载配置后，通知其他实例
+     *
+     * @param type 配置类型
+     * @param keys 修改的配置项
+     */
+    public void publish(String type, Collection<?> keys) {
+        Long version;
+        try {
+            version = stringRedisTemplate.opsForHash().increment(CONFIG_VERSION, type, 1);
+        } catch (Exception e) {
+            //版本号未增加时其他实例无法通过版本检查发现修改，需提示管理员
+            log.error("increase config version error,type:{},keys:{}", type, keys, e);
+            throw new BaseException(ErrorEnum.B_CONFIG_SYNC_ERROR);
+        }
+        //本实例已加载修改的配置项，只有漏收了其他实例的通知时才需要重新加载
+        onChange(type, version, Set.of());
+        try {
+            Set<String> keySet = new HashSet<>();
+            keys.forEach(key -> keySet.add(String.valueOf(key)));
+
+            ConfigChangeMessage changeMessage = new ConfigChangeMessage();
+            changeMessage.setInstanceId(instanceId);
+            changeMessage.setType(type);
+            changeMessage.setVersion(version);
+            changeMessage.setKeys(keySet);
+            stringRedisTemplate.convertAndSend(CONFIG_CHANGE_CHANNEL, JsonUtil.toJson(changeMessage));
+        } catch (Exception e) {
+            //版本号已增加，其他实例会在版本检查时重新加载
+            log.error("publish config change error,type:{},keys:{}", type, keys, e);
+        }
+    }
+
+    /**
+     * 重新加载全部配置，不依赖版本号
+     */
+    public void reloadAll() {
+        for (String type : reloaders.keySet()) {
+            long version = localVersions.get(type).get();
+            try {
+                version = Math.max(version, getRemoteVersion(type));
+            } catch (Exception e) {
+                log.error("get config version error,reload with local version,type:{}", type, e);
+            }
+            onChange(type, version, null);
+        }
+    }
+
+    /**
+     * 比较redis与本实例的版本号，不一致时重新加载全部配置
+     */
+    public void checkVersions() {
+        for (String type : reloaders.keySet()) {
+            long remoteVersion = getRemoteVersion(type);
+            if (remoteVersion > localVersions.get(type).get()) {
+                log.warn("config version behind,reload all,type:{},remoteVersion:{},localVersion:{}", type, remoteVersion, localVersions.get(type).get());
+                onChange(type, remoteVersion, null);
+            }
+        }
+    }
+
+    private void onChange(String type, Long version, Set<String> keys) {
+        Consumer<Set<String>> reloader = reloaders.get(type);
+        if (null == reloader || null == version) {
+            return;
+        }
+        AtomicLong localVersion = localVersions.get(type);
+        //重新加载时从数据库读取最新数据，与通知的先后顺序无关；只有版本号跳跃时才需要全部重新加载
+        Set<String> reloadKeys = version > localVersion.get() + 1 ? null : keys;
+        if (null != reloadKeys && reloadKeys.isEmpty()) {
+            localVersion.accumulateAndGet(version, Math::max);
+            return;
+        }
+        log.info("reload config,type:{},version:{},localVersion:{},keys:{}", type, version, localVersion.get(), null == reloadKeys ? "all" : reloadKeys);
+        try {
+            reloader.accept(reloadKeys);
+            localVersion.accumulateAndGet(version, Math::max);
+        } catch (Exception e) {
+            log.error("reload config error,type:{},version:{}", type, version, e);
+        }
+    }
+
+    private long getRemoteVersion(String type) {
+        Object version = stringRedisTemplate.opsForHash().get(CONFIG_VERSION, type);
+        return null == version ? 0 : Long.parseLong(version.toString());
+    }
+}
@@ -0,0 +1,90 @@
+package com.moyz.adi.common.helper;
+
+import com.moyz.adi.common.vo.KbStatisticDelta;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.KB_STATISTIC_DELTA;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.KB_STATISTIC_RECALCULATE_SIGNAL;
+import static com.moyz.adi.common.vo.KbStatisticDelta.*;
+
+/**
+ * 知识库统计数据的增量维护
+ * <br/>新增、编辑、删除、索引知识点时把增量累加到redis，由定时任务合并到adi_knowledge_base，避免每次都全表重新统计
+ */
+@Slf4j
+@Service
+public class KbStatisticHelper {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    public void incrItem(String kbUuid, int itemDelta, long charDelta) {
+        incr(kbUuid, ITEM_COUNT, itemDelta);
+        incr(kbUuid, CHAR_COUNT, charDelta);
+    }
+
+    public void incrEmbedding(String kbUuid, int embeddingDelta) {
+        incr(kbUuid, EMBEDDING_COUNT, embeddingDelta);
+    }
+
+    public void incrGraph(String kbUuid, int vertexDelta, int edgeDelta) {
+        incr(kbUuid, GRAPH_VERTEX_COUNT, vertexDelta);
+        incr(kbUuid, GRAPH_EDGE_COUNT, edgeDelta);
+    }
+
+    public boolean hasDelta(String kbUuid) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid));
+    }
+
+    /**
+     * 取出知识库的增量交给{applier}持久化，成功后从redis中扣减已持久化的部分
+     * <br/>先移除信号再读取增量，期间新产生的增量会重新设置信号，不会丢失
+     *
+     * @param kbUuid  知识库uuid
+     * @param applier 持久化增量
+     */
+    public void flush(String kbUuid, Consumer<KbStatisticDelta> applier) {
+        stringRedisTemplate.opsForSet().remove(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid);
+        String key = MessageFormat.format(KB_STATISTIC_DELTA, kbUuid);
+        Map<Object, Object> fieldToValue = stringRedisTemplate.opsForHash().entries(key);
+        KbStatisticDelta delta = new KbStatisticDelta();
+        delta.setItemCount(NumberUtils.toLong((String) fieldToValue.get(ITEM_COUNT)));
+        delta.setCharCount(NumberUtils.toLong((String) fieldToValue.get(CHAR_COUNT)));
+        delta.setEmbeddingCount(NumberUtils.toLong((String) fieldToValue.get(EMBEDDING_COUNT)));
+        delta.setGraphVertexCount(NumberUtils.toLong((String) fieldToValue.get(GRAPH_VERTEX_COUNT)));
+        delta.setGraphEdgeCount(NumberUtils.toLong((String) fieldToValue.get(GRAPH_EDGE_COUNT)));
+        if (delta.isEmpty()) {
+            return;
+        }
+        try {
+            applier.accept(delta);
+        } catch (Exception e) {
+            log.error("Apply knowledge base statistic delta error,kbUuid:{}", kbUuid, e);
+            stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid);
+            return;
+        }
+        for (Map.Entry<Object, Object> entry : fieldToValue.entrySet()) {
+            long value = NumberUtils.toLong((String) entry.getValue());
+            if (value != 0) {
+                stringRedisTemplate.opsForHash().increment(key, entry.getKey(), -value);
+            }
+        }
+    }
+
+    private void incr(String kbUuid, String field, long delta) {
+        if (StringUtils.isBlank(kbUuid) || delta == 0) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().increment(MessageFormat.format(KB_STATISTIC_DELTA, kbUuid), field, delta);
+        stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid);
+    }
+}
@@ -6,23 +6,43 @@ import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.interfaces.AbstractLLMService;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * llmService上下文类（策略模式）
+ * <br/>注册信息保存在不可变的快照中，修改时复制并整体替换，读取时无需加锁
  */
 @Slf4j
 public class LLMContext {
-    protected static final Map<String, AbstractLLMService<?>> NAME_TO_LLM_SERVICE = new LinkedHashMap<>();
+
+    private static volatile Registry registry = Registry.EMPTY;
 
     private LLMContext() {
     }
 
     public static void addLLMService(AbstractLLMService<?> llmService) {
-        NAME_TO_LLM_SERVICE.put(llmService.getAiModel().getName(), llmService);
+        update(nameToService -> nameToService.put(llmService.getAiModel().getName(), llmService));
+    }
+
+    /**
+     * 整体替换{modelPlatform}下的模型服务，替换过程中不会出现该平台没有模型的中间状态
+     *
+     * @param modelPlatform 模型所属的平台
+     * @param llmServices   该平台最新的模型服务
+     */
+    public static void replaceByPlatform(String modelPlatform, List<AbstractLLMService<?>> llmServices) {
+        update(nameToService -> {
+            removeByPlatform(nameToService, modelPlatform);
+            for (AbstractLLMService<?> llmService : llmServices) {
+                nameToService.put(llmService.getAiModel().getName(), llmService);
+            }
+        });
     }
 
     /**
@@ -31,33 +51,26 @@ public class LLMContext {
      * @param modelPlatform 模型所属的平台
      */
     public static void clearByPlatform(String modelPlatform) {
-        List<String> needDeleted = NAME_TO_LLM_SERVICE.values()
-                .stream()
-                .filter(item -> item.getAiModel().getPlatform().equalsIgnoreCase(modelPlatform))
-                .map(item -> item.getAiModel().getName())
-                .toList();
-        for (String key : needDeleted) {
-            log.info("delete llm model service,modelName:{}", key);
-            NAME_TO_LLM_SERVICE.remove(key);
-        }
+        update(nameToService -> removeByPlatform(nameToService, modelPlatform));
     }
 
     public static void remove(String modelName) {
-        NAME_TO_LLM_SERVICE.remove(modelName);
+        update(nameToService -> nameToService.remove(modelName));
     }
 
     public static AiModel getAiModel(String modelName) {
-        return NAME_TO_LLM_SERVICE.get(modelName).getAiModel();
+        return registry.nameToService.get(modelName).getAiModel();
     }
 
     public static Map<String, AbstractLLMService<?>> getAllServices() {
-        return NAME_TO_LLM_SERVICE;
+        return registry.nameToService;
     }
 
     public static AbstractLLMService<?> getLLMServiceByName(String modelName) {
-        AbstractLLMService<?> service = NAME_TO_LLM_SERVICE.get(modelName);
+        Registry current = registry;
+        AbstractLLMService<?> service = current.nameToService.get(modelName);
         if (null == service) {
-            Optional<AbstractLLMService<?>> serviceOptional = getFirstEnableAndFree();
+            Optional<AbstractLLMService<?>> serviceOptional = current.firstEnableAndFree;
             if (serviceOptional.isPresent()) {
                 log.warn("︿︿︿ 找不到 {},使用第1个可用的免费模型 {} ︿︿︿", modelName, serviceOptional.get().getAiModel().getName());
                 return serviceOptional.get();
@@ -69,11 +82,8 @@ public class LLMContext {
     }
 
     public static AbstractLLMService<?> getLLMServiceById(Long modelId) {
-        AiModel aiModel = NAME_TO_LLM_SERVICE.values().stream()
-                .map(AbstractLLMService::getAiModel)
-                .filter(item -> item.getId().equals(modelId))
-                .findFirst().orElse(null);
-        return LLMContext.getLLMServiceByName(null == aiModel ? "" : aiModel.getName());
+        AbstractLLMService<?> service = registry.idToService.get(modelId);
+        return LLMContext.getLLMServiceByName(null == service ? "" : service.getAiModel().getName());
     }
 
     /**
@@ -84,11 +94,57 @@ public class LLMContext {
      * @return 返回免费可用或收费可用的模型
      */
     public static Optional<AbstractLLMService<?>> getFirstEnableAndFree() {
-        return NAME_TO_LLM_SERVICE.values().stream().filter(item -> {
-            AiModel aiModel = item.getAiModel();
-            if (aiModel.getIsEnable() && aiModel.getIsFree()) {
-                return true;
-            } else return Boolean.TRUE.equals(aiModel.getIsEnable());
-        }).findFirst();
+        return registry.firstEnableAndFree;
+    }
+
+    private static synchronized void update(Consumer<Map<String, AbstractLLMService<?>>> modifier) {
+        Map<String, AbstractLLMService<?>> nameToService = new LinkedHashMap<>(registry.nameToService);
+        modifier.accept(nameToService);
+        registry = new Registry(nameToService);
+    }
+
+    private static void removeByPlatform(Map<String, AbstractLLMService<?>> nameToService, String modelPlatform) {
+        nameToService.values().removeIf(item -> {
+            boolean matched = item.getAiModel().getPlatform().equalsIgnoreCase(modelPlatform);
+            if (matched) {
+                log.info("delete llm model service,modelName:{}", item.getAiModel().getName());
+            }
+            return matched;
+        });
+    }
+
+    /**
+     * 模型服务注册信息的快照，创建后不再修改
+     */
+    private static class Registry {
+
+        private static final Registry EMPTY = new Registry(Collections.emptyMap());
+
+        private final Map<String, AbstractLLMService<?>> nameToService;
+
+        private final Map<Long, AbstractLLMService<?>> idToService;
+
+        private final Optional<AbstractLLMService<?>> firstEnableAndFree;
+
+        Registry(Map<String, AbstractLLMService<?>> nameToService) {
+            this.nameToService = Collections.unmodifiableMap(new LinkedHashMap<>(nameToService));
+            Map<Long, AbstractLLMService<?>> idMap = new HashMap<>();
+            AbstractLLMService<?> firstFree = null;
+            AbstractLLMService<?> firstEnable = null;
+            for (AbstractLLMService<?> service : nameToService.values()) {
+                AiModel aiModel = service.getAiModel();
+                idMap.putIfAbsent(aiModel.getId(), service);
+                if (Boolean.TRUE.equals(aiModel.getIsEnable())) {
+                    if (null == firstEnable) {
+                        firstEnable = service;
+                    }
+                    if (null == firstFree && Boolean.TRUE.equals(aiModel.getIsFree())) {
+                        firstFree = service;
+                    }
+                }
+            }
+            this.idToService = Collections.unmodifiableMap(idMap);
+            this.firstEnableAndFree = Optional.ofNullable(null != firstFree ? firstFree : firstEnable);
+        }
     }
 }
@@ -16,11 +16,11 @@ public class QuotaHelper {
     private UserDayCostService userDayCostService;
 
     public ErrorEnum checkTextQuota(User user) {
+        CostStat costStat = userDayCostService.costStatByUser(user.getId(), false);
         int userQuotaByTokenDay = user.getQuotaByTokenDaily();
         int userQuotaByTokenMonth = user.getQuotaByTokenMonthly();
         int userQuotaByRequestDay = user.getQuotaByRequestDaily();
         int userQuotaByRequestMonth = user.getQuotaByRequestMonthly();
-        CostStat costStat = userDayCostService.costStatByUser(user.getId(), false);
         if (costStat.getTextTokenCostByDay() >= userQuotaByTokenDay || costStat.getTextRequestTimesByDay() >= userQuotaByRequestDay) {
             log.warn("Reach limit of a day,userId:{},token:{},request:{},used token:{}, used request:{}", user.getId(), userQuotaByRequestDay, userQuotaByRequestDay, userQuotaByTokenMonth, userQuotaByRequestMonth);
             return ErrorEnum.B_DAILY_QUOTA_USED;
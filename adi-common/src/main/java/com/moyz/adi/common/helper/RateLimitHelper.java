@@ -1,44 +1,203 @@
 package com.moyz.adi.common.helper;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.moyz.adi.common.config.RateLimitProperties;
 import com.moyz.adi.common.vo.RequestRateLimit;
 import jakarta.annotation.Resource;
-import org.apache.commons.lang3.StringUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 请求限流，检查与计数在一个lua脚本中原子完成，一次redis请求
+ * <ul>
+ *     <li>sliding-window: zset记录时间窗口内每次请求的时间</li>
+ *     <li>token-bucket: hash记录剩余令牌数及上次计算的时间</li>
+ * </ul>
+ * 多个限制(如用户及用户对模型)在同一个脚本中检查，全部未超过时才计数，被拒绝的请求不占用任何限制的额度
+ * <br/>时间使用redis服务器的时间(TIME)，不受各实例时钟偏差的影响
+ * <br/>被拒绝时脚本返回需等待的毫秒数，在本地记录解封时间，解封前的请求直接拒绝
+ */
+@Slf4j
 @Service
 public class RateLimitHelper {
 
+    /**
+     * KEYS: 限流key; ARGV[1]: 请求标识, ARGV[2i]: 第i个key的窗口(毫秒), ARGV[2i+1]: 第i个key的限制次数
+     * <br/>返回每个key需等待的毫秒数，全部为0时已计数
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>("""
+            redis.replicate_commands()
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local waits = {}
+            local rejected = false
+            for i, key in ipairs(KEYS) do
+                local window = tonumber(ARGV[i * 2])
+                local limit = tonumber(ARGV[i * 2 + 1])
+                redis.call('ZREMRANGEBYSCORE', key, '-inf', now - window)
+                waits[i] = 0
+                if redis.call('ZCARD', key) >= limit then
+                    rejected = true
+                    local oldest = redis.call('ZRANGE', key, 0, 0, 'WITHSCORES')
+                    if #oldest == 0 then
+                        waits[i] = window
+                    else
+                        waits[i] = math.max(tonumber(oldest[2]) + window - now, 1)
+                    end
+                end
+            end
+            if not rejected then
+                for i, key in ipairs(KEYS) do
+                    redis.call('ZADD', key, now, now .. '-' .. ARGV[1])
+                    redis.call('PEXPIRE', key, ARGV[i * 2])
+                end
+            end
+            return waits
+            """, List.class);
+
+    /**
+     * KEYS: 限流key; ARGV[2i-1]: 第i个key的窗口(毫秒), ARGV[2i]: 第i个key的令牌桶容量
+     * <br/>返回每个key需等待的毫秒数，全部为0时已扣减令牌
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>("""
+            redis.replicate_commands()
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local waits = {}
+            local remains = {}
+            local rejected = false
+            for i, key in ipairs(KEYS) do
+                local window = tonumber(ARGV[i * 2 - 1])
+                local capacity = tonumber(ARGV[i * 2])
+                local rate = capacity / window
+                local bucket = redis.call('HMGET', key, 'tokens', 'ts')
+                local tokens = tonumber(bucket[1])
+                local ts = tonumber(bucket[2])
+                if tokens == nil or ts == nil then
+                    tokens = capacity
+                    ts = now
+                end
+                tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate)
+                remains[i] = tokens
+                waits[i] = 0
+                if tokens < 1 then
+                    rejected = true
+                    waits[i] = math.ceil((1 - tokens) / rate)
+                end
+            end
+            for i, key in ipairs(KEYS) do
+                local tokens = remains[i]
+                if not rejected then
+                    tokens = tokens - 1
+                end
+                redis.call('HMSET', key, 'tokens', tostring(tokens), 'ts', now)
+                redis.call('PEXPIRE', key, ARGV[i * 2 - 1])
+            end
+            return waits
+            """, List.class);
+
+    /**
+     * 被拒绝的key及解封时间
+     */
+    private final Cache<String, Long> localBlocks = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RateLimitProperties rateLimitProperties;
+
     /**
-     * 按固定时间窗口计算请求次数
+     * 检查是否超过限制，未超过时记录本次请求
      *
      * @param requestTimesKey redis key
      * @param rateLimitConfig 请求频率限制配置
-     * @return
+     * @return true: 未超过限制，已计数; false: 超过限制
      */
-    public boolean checkRequestTimes(String requestTimesKey, RequestRateLimit rateLimitConfig) {
-        int requestCountInTimeWindow = 0;
-        String rateLimitVal = stringRedisTemplate.opsForValue().get(requestTimesKey);
-        if (StringUtils.isNotBlank(rateLimitVal)) {
-            requestCountInTimeWindow = Integer.parseInt(rateLimitVal);
+    public boolean tryAcquire(String requestTimesKey, RequestRateLimit rateLimitConfig) {
+        return null == tryAcquireAll(Map.of(requestTimesKey, rateLimitConfig));
+    }
+
+    /**
+     * 同时检查多个限制，全部未超过时才对每个限制计数
+     *
+     * @param keyToConfig redis key及对应的请求频率限制配置
+     * @return 超过限制的key(有多个时返回第一个)，全部未超过时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public String tryAcquireAll(Map<String, RequestRateLimit> keyToConfig) {
+        long now = System.currentTimeMillis();
+        for (String key : keyToConfig.keySet()) {
+            Long blockedUntil = localBlocks.getIfPresent(key);
+            if (null == blockedUntil) {
+                continue;
+            }
+            if (blockedUntil > now) {
+                return key;
+            }
+            localBlocks.invalidate(key);
+        }
+        List<String> keys = new ArrayList<>(keyToConfig.keySet());
+        boolean tokenBucket = RateLimitProperties.MODE_TOKEN_BUCKET.equals(rateLimitProperties.getMode());
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        List<String> args = new ArrayList<>(keys.size() * 2 + 1);
+        if (!tokenBucket) {
+            args.add(UUID.randomUUID().toString());
+        }
+        for (String key : keys) {
+            RequestRateLimit rateLimitConfig = keyToConfig.get(key);
+            redisKeys.add(key + (tokenBucket ? ":tb" : ":sw"));
+            args.add(String.valueOf(TimeUnit.MINUTES.toMillis(rateLimitConfig.getMinutes())));
+            args.add(String.valueOf(rateLimitConfig.getTimes()));
         }
-        return requestCountInTimeWindow < rateLimitConfig.getTimes();
+        List<Long> waits = stringRedisTemplate.execute(tokenBucket ? TOKEN_BUCKET_SCRIPT : SLIDING_WINDOW_SCRIPT, redisKeys, args.toArray());
+        if (null == waits) {
+            return null;
+        }
+        String rejectedKey = null;
+        for (int i = 0; i < waits.size() && i < keys.size(); i++) {
+            Long waitMillis = waits.get(i);
+            if (null == waitMillis || waitMillis <= 0) {
+                continue;
+            }
+            String key = keys.get(i);
+            log.info("request rate limited,key:{},wait millis:{}", key, waitMillis);
+            if (rateLimitProperties.isLocalBlockEnable()) {
+                localBlocks.put(key, now + waitMillis);
+            }
+            if (null == rejectedKey) {
+                rejectedKey = key;
+            }
+        }
+        return rejectedKey;
     }
 
-    public void increaseRequestTimes(String requestTimesKey, RequestRateLimit rateLimitConfig) {
-        long expireTime = stringRedisTemplate.getExpire(requestTimesKey).longValue();
-        if (expireTime == -1) {
-            stringRedisTemplate.opsForValue().increment(requestTimesKey);
-            stringRedisTemplate.opsForValue().set(requestTimesKey, String.valueOf(1), rateLimitConfig.getMinutes(), TimeUnit.MINUTES);
-        } else if (expireTime > 3) {
-            //If expireTime <= 3, too short to cache
-            stringRedisTemplate.opsForValue().increment(requestTimesKey);
+    /**
+     * 获取模型的限流配置
+     *
+     * @param modelName 模型名称
+     * @return 未配置时返回null
+     */
+    public RequestRateLimit getModelRateLimit(String modelName) {
+        if (null == modelName) {
+            return null;
         }
+        return rateLimitProperties.getModels().get(modelName);
     }
 
 }
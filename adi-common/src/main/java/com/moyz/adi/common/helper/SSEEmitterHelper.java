@@ -6,11 +6,11 @@ import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.interfaces.TriConsumer;
 import com.moyz.adi.common.util.JsonUtil;
 import com.moyz.adi.common.util.LocalCache;
-import com.moyz.adi.common.util.SpringUtil;
 import com.moyz.adi.common.util.UuidUtil;
 import com.moyz.adi.common.vo.AnswerMeta;
 import com.moyz.adi.common.vo.ChatMeta;
 import com.moyz.adi.common.vo.PromptMeta;
+import com.moyz.adi.common.vo.RequestRateLimit;
 import com.moyz.adi.common.vo.SseAskParams;
 import com.theokanning.openai.OpenAiError;
 import dev.ai4j.openai4j.OpenAiHttpException;
@@ -18,16 +18,17 @@ import dev.langchain4j.service.TokenStream;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import static com.moyz.adi.common.cosntant.RedisKeyConstant.TOKEN_USAGE_KEY;
-
 @Slf4j
 @Service
 public class SSEEmitterHelper {
@@ -38,21 +39,45 @@ public class SSEEmitterHelper {
     @Resource
     private RateLimitHelper rateLimitHelper;
 
-    public boolean checkOrComplete(User user, SseEmitter sseEmitter) {
-        //Check: rate limit
-        String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_TEXT_TIMES, user.getId());
-        if (!rateLimitHelper.checkRequestTimes(requestTimesKey, LocalCache.TEXT_RATE_LIMIT_CONFIG)) {
-            sendErrorAndComplete(user.getId(), sseEmitter, "访问太过频繁");
-            return false;
-        }
+    /**
+     * 流式输出的帧格式，见{@link SseTokenWriter}
+     */
+    private static volatile String tokenFrameFormat = SseTokenWriter.FRAME_FORMAT_TEXT;
 
+    @Value("${adi.sse.token-frame-format:text}")
+    public void setTokenFrameFormat(String tokenFrameFormat) {
+        SSEEmitterHelper.tokenFrameFormat = tokenFrameFormat;
+    }
+
+    /**
+     * 检查是否正在回复中及是否超过请求频率限制（用户维度及用户对模型的维度），未超过限制时计数
+     *
+     * @param user       用户
+     * @param sseEmitter sseEmitter
+     * @param modelName  模型名称，为空时不检查模型维度的限制
+     * @return
+     */
+    public boolean checkOrComplete(User user, SseEmitter sseEmitter, String modelName) {
         //Check: If still waiting response
         String askingKey = MessageFormat.format(RedisKeyConstant.USER_ASKING, user.getId());
-        String askingVal = stringRedisTemplate.opsForValue().get(askingKey);
-        if (StringUtils.isNotBlank(askingVal)) {
+        if (StringUtils.isNotBlank(stringRedisTemplate.opsForValue().get(askingKey))) {
             sendErrorAndComplete(user.getId(), sseEmitter, "正在回复中...");
             return false;
         }
+
+        //Check: rate limit，用户维度及模型维度同时检查，任一超过限制时都不计数
+        String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_TEXT_TIMES, user.getId());
+        Map<String, RequestRateLimit> keyToRateLimit = new LinkedHashMap<>();
+        keyToRateLimit.put(requestTimesKey, LocalCache.TEXT_RATE_LIMIT_CONFIG);
+        RequestRateLimit modelRateLimit = rateLimitHelper.getModelRateLimit(modelName);
+        if (null != modelRateLimit) {
+            keyToRateLimit.put(MessageFormat.format(RedisKeyConstant.USER_REQUEST_MODEL_TIMES, user.getId(), modelName), modelRateLimit);
+        }
+        String rejectedKey = rateLimitHelper.tryAcquireAll(keyToRateLimit);
+        if (null != rejectedKey) {
+            sendErrorAndComplete(user.getId(), sseEmitter, requestTimesKey.equals(rejectedKey) ? "访问太过频繁" : "该模型访问太过频繁");
+            return false;
+        }
         return true;
     }
 
@@ -61,8 +86,6 @@ public class SSEEmitterHelper {
         String askingKey = MessageFormat.format(RedisKeyConstant.USER_ASKING, user.getId());
         stringRedisTemplate.opsForValue().set(askingKey, "1", 15, TimeUnit.SECONDS);
 
-        String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_TEXT_TIMES, user.getId());
-        rateLimitHelper.increaseRequestTimes(requestTimesKey, LocalCache.TEXT_RATE_LIMIT_CONFIG);
         try {
             sseEmitter.send(SseEmitter.event().name(AdiConstant.SSEEventName.START));
         } catch (IOException e) {
@@ -146,43 +169,27 @@ public class SSEEmitterHelper {
 
     /**
      * 注册TokenStream的回调
+     * <br/>token经{@link SseTokenWriter}合并后按帧发送，帧格式由adi.sse.token-frame-format指定
      *
      * @param tokenStream
      * @param params
      * @param consumer
      */
     public static void registerTokenStreamCallBack(TokenStream tokenStream, SseAskParams params, TriConsumer<String, PromptMeta, AnswerMeta> consumer) {
+        SseTokenWriter tokenWriter = new SseTokenWriter(params.getSseEmitter(), tokenFrameFormat);
         tokenStream
                 .onNext(content -> {
-                    log.info("get content:{}", content);
-                    //加空格配合前端的fetchEventSource进行解析，见https://github.com/Azure/fetch-event-source/blob/45ac3cfffd30b05b79fbf95c21e67d4ef59aa56a/src/parse.ts#L129-L133
-                    try {
-                        String[] lines = content.split("[\\r\\n]", -1);
-                        if (lines.length > 1) {
-                            params.getSseEmitter().send(" " + lines[0]);
-                            for (int i = 1; i < lines.length; i++) {
-                                /**
-                                 * 当响应结果的content中包含有多行文本时，
-                                 * 前端的fetch-event-source框架的BUG会将包含有换行符的那一行内容替换为空字符串，
-                                 * 故需要先将换行符与后面的内容拆分并转成，前端碰到换行标志时转成换行符处理
-                                 */
-                                params.getSseEmitter().send("-_-_wrap_-_-");
-                                params.getSseEmitter().send(" " + lines[i]);
-                            }
-                        } else {
-                            params.getSseEmitter().send(" " + content);
-                        }
-                    } catch (IOException e) {
-                        log.error("stream onNext error", e);
-                    }
+                    log.debug("get content:{}", content);
+                    tokenWriter.write(content);
                 })
                 .onComplete(response -> {
-                    log.info("返回数据结束了:{}", response);
-                    //缓存以便后续统计此次提问的消耗总token
+                    tokenWriter.close();
+                    log.debug("返回数据结束了:{}", response);
+                    //累加到本次提问的token消耗，持久化时统计总token
                     int inputTokenCount = response.tokenUsage().totalTokenCount();
                     int outputTokenCount = response.tokenUsage().outputTokenCount();
                     log.info("StreamingChatLanguageModel token cost,uuid:{},inputTokenCount:{},outputTokenCount:{}", params.getUuid(), inputTokenCount, outputTokenCount);
-                    SpringUtil.getBean(StringRedisTemplate.class).opsForList().rightPushAll(MessageFormat.format(TOKEN_USAGE_KEY, params.getUuid()), String.valueOf(inputTokenCount), String.valueOf(outputTokenCount));
+                    params.getTokenUsage().add(inputTokenCount, outputTokenCount);
 
                     PromptMeta questionMeta = new PromptMeta(inputTokenCount, params.getUuid());
                     AnswerMeta answerMeta = new AnswerMeta(outputTokenCount, UuidUtil.createShort());
@@ -200,6 +207,7 @@ public class SSEEmitterHelper {
                     consumer.accept(response.content().text(), questionMeta, answerMeta);
                 })
                 .onError(error -> {
+                    tokenWriter.close();
                     log.error("stream error", error);
                     try {
                         String errorMsg = error.getMessage();
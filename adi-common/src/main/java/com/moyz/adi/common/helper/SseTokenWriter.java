@@ -0,0 +1,137 @@
+package com.moyz.adi.common.helper;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.moyz.adi.common.util.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 合并LLM流式输出的token后再发送给客户端，减少每个token一次的send/flush
+ * <ul>
+ *     <li>距上次发送已超过{@link #FLUSH_INTERVAL_MILLIS}毫秒(如第一个token、模型停顿后)的token在LLM回调线程中立即发送</li>
+ *     <li>否则先缓冲，缓冲区达到{@link #FLUSH_SIZE}个字符时在LLM回调线程中发送</li>
+ *     <li>缓冲的token最迟在距上次发送{@link #FLUSH_INTERVAL_MILLIS}毫秒时由定时发送线程池发送，模型停顿时不会一直等待下一个token</li>
+ *     <li>结束时({@link #close()})发送剩余内容</li>
+ * </ul>
+ * 帧格式(adi.sse.token-frame-format)：
+ * <ul>
+ *     <li>text(默认): 与原有格式一致，数据为原始文本，换行符拆分为单独的"-_-_wrap_-_-"消息</li>
+ *     <li>json: 每帧的数据为JSON字符串（如 "第一行\n第二行"），一帧只占一行data，客户端JSON.parse后直接拼接即可</li>
+ * </ul>
+ * LLM回调线程与定时发送线程通过对象锁互斥
+ */
+@Slf4j
+public class SseTokenWriter {
+
+    public static final String FRAME_FORMAT_TEXT = "text";
+
+    public static final String FRAME_FORMAT_JSON = "json";
+
+    public static final int FLUSH_SIZE = 64;
+
+    public static final long FLUSH_INTERVAL_MILLIS = 30;
+
+    /**
+     * 前端碰到该标志时转成换行符
+     */
+    private static final String WRAP_FLAG = "-_-_wrap_-_-";
+
+    /**
+     * 定时发送的线程池，所有流共用；发送可能阻塞，使用多个线程避免一个慢客户端影响其他流
+     */
+    private static final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder().setNameFormat("sse-flush-%d").setDaemon(true).build()
+    );
+
+    private final SseEmitter sseEmitter;
+
+    private final boolean jsonFrame;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private long lastFlushAt;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    private boolean closed;
+
+    public SseTokenWriter(SseEmitter sseEmitter, String frameFormat) {
+        this.sseEmitter = sseEmitter;
+        this.jsonFrame = FRAME_FORMAT_JSON.equals(frameFormat);
+    }
+
+    /**
+     * 写入token，距上次发送已超过时间阈值或缓冲区达到大小阈值时立即发送，否则等待定时发送
+     *
+     * @param token LLM返回的token
+     */
+    public synchronized void write(String token) {
+        if (closed || null == token || token.isEmpty()) {
+            return;
+        }
+        boolean wasEmpty = buffer.isEmpty();
+        buffer.append(token);
+        long sinceLastFlush = System.currentTimeMillis() - lastFlushAt;
+        if (buffer.length() >= FLUSH_SIZE || sinceLastFlush >= FLUSH_INTERVAL_MILLIS) {
+            flush();
+        } else if (wasEmpty) {
+            scheduledFlush = FLUSH_SCHEDULER.schedule(this::flush, FLUSH_INTERVAL_MILLIS - sinceLastFlush, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 发送缓冲区中的内容
+     */
+    public synchronized void flush() {
+        if (null != scheduledFlush) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (closed || buffer.isEmpty()) {
+            return;
+        }
+        String content = buffer.toString();
+        buffer.setLength(0);
+        lastFlushAt = System.currentTimeMillis();
+        try {
+            //加空格配合前端的fetchEventSource进行解析，见https://github.com/Azure/fetch-event-source/blob/45ac3cfffd30b05b79fbf95c21e67d4ef59aa56a/src/parse.ts#L129-L133
+            if (jsonFrame) {
+                sseEmitter.send(" " + JsonUtil.toJson(content));
+            } else {
+                sendText(content);
+            }
+        } catch (IOException | IllegalStateException e) {
+            //客户端已断开，丢弃后续的token
+            log.warn("send tokens error,discard the rest:{}", e.getMessage());
+            closed = true;
+        }
+    }
+
+    /**
+     * 发送剩余内容并停止接收token，后续由调用方发送DONE/ERROR事件
+     */
+    public synchronized void close() {
+        flush();
+        closed = true;
+    }
+
+    /**
+     * 当内容中包含有多行文本时，前端的fetch-event-source框架的BUG会将包含有换行符的那一行内容替换为空字符串，
+     * 故需要先将换行符与后面的内容拆分，前端碰到换行标志时转成换行符处理
+     */
+    private void sendText(String content) throws IOException {
+        String[] lines = content.split("[\\r\\n]", -1);
+        sseEmitter.send(" " + lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            sseEmitter.send(WRAP_FLAG);
+            sseEmitter.send(" " + lines[i]);
+        }
+    }
+}
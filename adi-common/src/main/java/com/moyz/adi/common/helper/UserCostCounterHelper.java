@@ -0,0 +1,140 @@
+package com.moyz.adi.common.helper;
+
+import com.moyz.adi.common.vo.CostStat;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_DAY_COST;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_MONTH_COST;
+
+/**
+ * 用户当天及当月消耗的计数器，额度检查时不再每次汇总adi_user_day_cost
+ * <ul>
+ *     <li>计数器不存在时由调用方从数据库汇总后写入，并设置{@code adi.quota-counter.ttl-minutes}分钟的过期时间</li>
+ *     <li>增加消耗时只累加已存在的计数器，避免在未加载的计数器上累加出错误的值</li>
+ *     <li>计数器过期后重新从数据库加载，即定期与数据库对账</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class UserCostCounterHelper {
+
+    private static final RedisScript<List> GET_SCRIPT = new DefaultRedisScript<>("""
+            local day = redis.call('HMGET', KEYS[1], 'tokens', 'requests', 'draws')
+            local month = redis.call('HMGET', KEYS[2], 'tokens', 'requests', 'draws')
+            if not day[1] or not month[1] then
+                return nil
+            end
+            return {day[1], day[2], day[3], month[1], month[2], month[3]}
+            """, List.class);
+
+    private static final RedisScript<Long> SEED_SCRIPT = new DefaultRedisScript<>("""
+            for i = 1, 2 do
+                if redis.call('EXISTS', KEYS[i]) == 0 then
+                    redis.call('HMSET', KEYS[i], 'tokens', ARGV[i * 3 - 2], 'requests', ARGV[i * 3 - 1], 'draws', ARGV[i * 3])
+                    redis.call('PEXPIRE', KEYS[i], ARGV[7])
+                end
+            end
+            return 0
+            """, Long.class);
+
+    private static final RedisScript<Long> INCR_SCRIPT = new DefaultRedisScript<>("""
+            for i = 1, 2 do
+                if redis.call('EXISTS', KEYS[i]) == 1 then
+                    redis.call('HINCRBY', KEYS[i], 'tokens', ARGV[1])
+                    redis.call('HINCRBY', KEYS[i], 'requests', ARGV[2])
+                    redis.call('HINCRBY', KEYS[i], 'draws', ARGV[3])
+                end
+            end
+            return 0
+            """, Long.class);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 计数器的过期时间，过期后从数据库重新加载
+     */
+    @Value("${adi.quota-counter.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    /**
+     * 获取用户当天及当月的消耗
+     *
+     * @param userId 用户id
+     * @param isFree 是否免费额度
+     * @param today  日期(yyyyMMdd)
+     * @return 计数器不存在时返回null
+     */
+    public CostStat get(long userId, boolean isFree, int today) {
+        List<?> values = stringRedisTemplate.execute(GET_SCRIPT, keys(userId, isFree, today));
+        if (null == values || values.size() < 6) {
+            return null;
+        }
+        CostStat result = new CostStat();
+        result.setDay(today);
+        result.setFree(isFree);
+        result.setTextTokenCostByDay(NumberUtils.toInt((String) values.get(0)));
+        result.setTextRequestTimesByDay(NumberUtils.toInt((String) values.get(1)));
+        result.setDrawTimesByDay(NumberUtils.toInt((String) values.get(2)));
+        result.setTextTokenCostByMonth(NumberUtils.toInt((String) values.get(3)));
+        result.setTextRequestTimesByMonth(NumberUtils.toInt((String) values.get(4)));
+        result.setDrawTimesByMonth(NumberUtils.toInt((String) values.get(5)));
+        return result;
+    }
+
+    /**
+     * 写入从数据库汇总的消耗，已存在的计数器不覆盖
+     *
+     * @param userId   用户id
+     * @param isFree   是否免费额度
+     * @param today    日期(yyyyMMdd)
+     * @param costStat 数据库汇总的消耗
+     */
+    public void seed(long userId, boolean isFree, int today, CostStat costStat) {
+        stringRedisTemplate.execute(SEED_SCRIPT, keys(userId, isFree, today),
+                String.valueOf(costStat.getTextTokenCostByDay()), String.valueOf(costStat.getTextRequestTimesByDay()), String.valueOf(costStat.getDrawTimesByDay()),
+                String.valueOf(costStat.getTextTokenCostByMonth()), String.valueOf(costStat.getTextRequestTimesByMonth()), String.valueOf(costStat.getDrawTimesByMonth()),
+                String.valueOf(TimeUnit.MINUTES.toMillis(ttlMinutes)));
+    }
+
+    /**
+     * 累加消耗，计数器不存在时忽略（下次读取时从数据库加载）
+     *
+     * @param userId       用户id
+     * @param isFree       是否免费额度
+     * @param today        日期(yyyyMMdd)
+     * @param tokens       token数
+     * @param requestTimes 请求次数
+     * @param drawTimes    绘图次数
+     */
+    public void incr(long userId, boolean isFree, int today, int tokens, int requestTimes, int drawTimes) {
+        try {
+            stringRedisTemplate.execute(INCR_SCRIPT, keys(userId, isFree, today),
+                    String.valueOf(tokens), String.valueOf(requestTimes), String.valueOf(drawTimes));
+        } catch (Exception e) {
+            //计数器累加失败时删除，下次读取时从数据库重新加载
+            log.error("Increase user cost counter error,userId:{}", userId, e);
+            stringRedisTemplate.delete(keys(userId, isFree, today));
+        }
+    }
+
+    private static List<String> keys(long userId, boolean isFree, int today) {
+        String user = String.valueOf(userId);
+        String free = String.valueOf(isFree);
+        return List.of(
+                MessageFormat.format(USER_DAY_COST, user, free, String.valueOf(today)),
+                MessageFormat.format(USER_MONTH_COST, user, free, String.valueOf(today / 100))
+        );
+    }
+}
@@ -0,0 +1,204 @@
+package com.moyz.adi.common.helper;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.moyz.adi.common.cosntant.AdiConstant;
+import com.moyz.adi.common.entity.User;
+import com.moyz.adi.common.util.JsonUtil;
+import com.moyz.adi.common.util.UuidUtil;
+import com.moyz.adi.common.vo.UserSession;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_TOKEN;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_TOKENS;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_TOKENS_BACKFILLED;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_TOKENS_BACKFILL_LOCK;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_TOKEN_INVALIDATE_CHANNEL;
+
+/**
+ * 登录会话
+ * <ul>
+ *     <li>redis中保存精简的{@link UserSession}</li>
+ *     <li>每个实例在本地缓存{@code adi.session.local-ttl-seconds}秒，避免每个请求都访问redis及解析JSON</li>
+ *     <li>注销、修改密码、冻结时删除redis中的会话，并通过pub/sub通知所有实例清除本地缓存</li>
+ *     <li>旧版本创建的会话没有记录在用户的token集合中，启动时扫描一次并补充，见{@link #backfillUserTokens()}</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class UserSessionHelper {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${adi.session.local-ttl-seconds:30}")
+    private long localTtlSeconds;
+
+    @Value("${adi.session.local-max-size:10000}")
+    private long localMaxSize;
+
+    private Cache<String, UserSession> localSessions;
+
+    @PostConstruct
+    public void init() {
+        localSessions = CacheBuilder.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String tokens = new String(message.getBody(), StandardCharsets.UTF_8);
+            for (String token : StringUtils.split(tokens, ',')) {
+                localSessions.invalidate(token);
+            }
+        }, new ChannelTopic(USER_TOKEN_INVALIDATE_CHANNEL));
+        try {
+            backfillUserTokens();
+        } catch (Exception e) {
+            log.error("backfill user tokens error", e);
+        }
+    }
+
+    /**
+     * 把旧版本创建的登录token补充到用户的token集合中，使修改密码、冻结等操作也能清除这些会话
+     * <br/>使用scan遍历，所有实例只执行一次
+     */
+    private void backfillUserTokens() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(USER_TOKENS_BACKFILLED))
+                || !Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(USER_TOKENS_BACKFILL_LOCK, "1", 10, TimeUnit.MINUTES))) {
+            return;
+        }
+        String tokenKeyPrefix = MessageFormat.format(USER_TOKEN, "");
+        int count = 0;
+        List<String> tokenKeys = new ArrayList<>();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(ScanOptions.scanOptions().match(tokenKeyPrefix + "*").count(1000).build())) {
+            while (cursor.hasNext()) {
+                tokenKeys.add(cursor.next());
+                if (tokenKeys.size() >= 1000 || !cursor.hasNext()) {
+                    count += backfillUserTokens(tokenKeyPrefix, tokenKeys);
+                    tokenKeys.clear();
+                }
+            }
+        }
+        stringRedisTemplate.opsForValue().set(USER_TOKENS_BACKFILLED, "1");
+        log.info("backfill user tokens finished,count:{}", count);
+    }
+
+    private int backfillUserTokens(String tokenKeyPrefix, List<String> tokenKeys) {
+        List<String> sessions = stringRedisTemplate.opsForValue().multiGet(tokenKeys);
+        if (null == sessions) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < tokenKeys.size(); i++) {
+            if (StringUtils.isBlank(sessions.get(i))) {
+                continue;
+            }
+            //旧版本保存的是完整的User，与UserSession都有id字段
+            UserSession session = JsonUtil.fromJson(sessions.get(i), UserSession.class);
+            if (null == session || null == session.getId()) {
+                continue;
+            }
+            String userTokensKey = MessageFormat.format(USER_TOKENS, String.valueOf(session.getId()));
+            stringRedisTemplate.opsForSet().add(userTokensKey, tokenKeys.get(i).substring(tokenKeyPrefix.length()));
+            stringRedisTemplate.expire(userTokensKey, AdiConstant.USER_TOKEN_EXPIRE, TimeUnit.HOURS);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 创建登录会话
+     *
+     * @param user 用户
+     * @return 登录token
+     */
+    public String create(User user) {
+        String token = UuidUtil.createShort();
+        String tokenKey = MessageFormat.format(USER_TOKEN, token);
+        stringRedisTemplate.opsForValue().set(tokenKey, JsonUtil.toJson(UserSession.from(user)), AdiConstant.USER_TOKEN_EXPIRE, TimeUnit.HOURS);
+        String userTokensKey = MessageFormat.format(USER_TOKENS, String.valueOf(user.getId()));
+        stringRedisTemplate.opsForSet().add(userTokensKey, token);
+        stringRedisTemplate.expire(userTokensKey, AdiConstant.USER_TOKEN_EXPIRE, TimeUnit.HOURS);
+        return token;
+    }
+
+    /**
+     * 获取登录会话对应的用户
+     *
+     * @param token 登录token
+     * @return 会话不存在时返回null
+     */
+    public User getUser(String token) {
+        UserSession session = localSessions.getIfPresent(token);
+        if (null == session) {
+            String sessionJson = stringRedisTemplate.opsForValue().get(MessageFormat.format(USER_TOKEN, token));
+            if (StringUtils.isBlank(sessionJson)) {
+                return null;
+            }
+            session = JsonUtil.fromJson(sessionJson, UserSession.class);
+            if (null == session) {
+                return null;
+            }
+            localSessions.put(token, session);
+        }
+        return session.toUser();
+    }
+
+    /**
+     * 删除登录会话，如注销
+     *
+     * @param token 登录token
+     */
+    public void remove(String token) {
+        stringRedisTemplate.delete(MessageFormat.format(USER_TOKEN, token));
+        publishInvalidate(List.of(token));
+    }
+
+    /**
+     * 删除用户所有的登录会话，如修改密码、冻结、修改管理员权限
+     *
+     * @param userId 用户id
+     */
+    public void removeByUserId(long userId) {
+        String userTokensKey = MessageFormat.format(USER_TOKENS, String.valueOf(userId));
+        Set<String> tokens = stringRedisTemplate.opsForSet().members(userTokensKey);
+        stringRedisTemplate.delete(userTokensKey);
+        if (null == tokens || tokens.isEmpty()) {
+            return;
+        }
+        List<String> tokenKeys = new ArrayList<>();
+        for (String token : tokens) {
+            tokenKeys.add(MessageFormat.format(USER_TOKEN, token));
+        }
+        stringRedisTemplate.delete(tokenKeys);
+        publishInvalidate(tokens);
+        log.info("remove user sessions,userId:{},count:{}", userId, tokens.size());
+    }
+
+    private void publishInvalidate(Iterable<String> tokens) {
+        for (String token : tokens) {
+            localSessions.invalidate(token);
+        }
+        stringRedisTemplate.convertAndSend(USER_TOKEN_INVALIDATE_CHANNEL, String.join(",", tokens));
+    }
+}
@@ -1,5 +1,7 @@
 package com.moyz.adi.common.interfaces;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.moyz.adi.common.entity.AiModel;
 import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.SSEEmitterHelper;
@@ -17,32 +19,53 @@ import dev.langchain4j.service.TokenStream;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.net.Proxy;
-import java.text.MessageFormat;
-import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import static com.moyz.adi.common.cosntant.AdiConstant.LLM_MAX_INPUT_TOKENS_DEFAULT;
-import static com.moyz.adi.common.cosntant.RedisKeyConstant.TOKEN_USAGE_KEY;
 import static com.moyz.adi.common.enums.ErrorEnum.A_PARAMS_ERROR;
 import static com.moyz.adi.common.enums.ErrorEnum.B_LLM_SERVICE_DISABLED;
 
 @Slf4j
 public abstract class AbstractLLMService<T> {
 
+    private static final double DEFAULT_TEMPERATURE = 0.7;
+
+    /**
+     * 温度保留一位小数后最多11个取值
+     */
+    private static final int MODEL_CACHE_MAX_SIZE = 16;
+
+    private static final int MODEL_CACHE_EXPIRE_MINUTES = 60;
+
     protected Proxy proxy;
     @Getter
     protected AiModel aiModel;
     protected T modelPlatformSetting;
 
-    protected StringRedisTemplate stringRedisTemplate;
+    private final String settingName;
+    private final Class<T> settingClazz;
+    /**
+     * 解析{@link #modelPlatformSetting}时使用的配置原文，用于判断系统配置是否已修改
+     */
+    private volatile String settingJson;
+
+    /**
+     * 已创建的模型客户端，key: 实际使用的温度(见{@link #normalize(LLMBuilderProperties)})，复用其中的HTTP连接池
+     * <br/>平台配置(系统配置)修改时替换为新的缓存，正在构建的旧客户端只会写入旧缓存；模型配置修改时会重新创建service，缓存随之失效
+     */
+    private volatile Cache<Double, ChatLanguageModel> chatModelCache = newModelCache();
+    private volatile Cache<Double, StreamingChatLanguageModel> streamingChatModelCache = newModelCache();
 
     protected AbstractLLMService(AiModel aiModel, String settingName, Class<T> clazz) {
         this.aiModel = aiModel;
-        String st = LocalCache.CONFIGS.get(settingName);
-        modelPlatformSetting = JsonUtil.fromJson(st, clazz);
+        this.settingName = settingName;
+        this.settingClazz = clazz;
+        this.settingJson = LocalCache.CONFIGS.get(settingName);
+        modelPlatformSetting = JsonUtil.fromJson(settingJson, clazz);
 
         initMaxInputTokens();
     }
@@ -53,18 +76,57 @@ public abstract class AbstractLLMService<T> {
         }
     }
 
-    private StringRedisTemplate getStringRedisTemplate() {
-        if (null == this.stringRedisTemplate) {
-            this.stringRedisTemplate = SpringUtil.getBean(StringRedisTemplate.class);
-        }
-        return this.stringRedisTemplate;
-    }
-
     public AbstractLLMService<T> setProxy(Proxy proxy) {
         this.proxy = proxy;
+        clearModelCache();
         return this;
     }
 
+    /**
+     * 系统配置中的平台配置(如secret key、base url)被修改时重新解析，并清空已创建的模型客户端
+     */
+    private void refreshSettingIfChanged() {
+        String latest = LocalCache.CONFIGS.get(settingName);
+        if (Objects.equals(latest, settingJson)) {
+            return;
+        }
+        synchronized (this) {
+            if (Objects.equals(latest, settingJson)) {
+                return;
+            }
+            log.info("platform setting changed,rebuild model clients,modelName:{},settingName:{}", aiModel.getName(), settingName);
+            modelPlatformSetting = JsonUtil.fromJson(latest, settingClazz);
+            settingJson = latest;
+            clearModelCache();
+        }
+    }
+
+    private void clearModelCache() {
+        chatModelCache = newModelCache();
+        streamingChatModelCache = newModelCache();
+    }
+
+    private static <V> Cache<Double, V> newModelCache() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MODEL_CACHE_MAX_SIZE)
+                .expireAfterAccess(MODEL_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 温度不在(0,1]范围内时使用默认值，否则保留一位小数，构建客户端及缓存的key都使用该值
+     *
+     * @param properties 构建参数，可为空
+     * @return 实际使用的构建参数
+     */
+    private static LLMBuilderProperties normalize(LLMBuilderProperties properties) {
+        double temperature = DEFAULT_TEMPERATURE;
+        if (null != properties && null != properties.getTemperature() && properties.getTemperature() > 0 && properties.getTemperature() <= 1) {
+            temperature = Math.round(properties.getTemperature() * 10) / 10.0;
+        }
+        return LLMBuilderProperties.builder().temperature(temperature).build();
+    }
+
     /**
      * 检测该service是否可用（不可用的情况通常是没有配置key）
      *
@@ -76,20 +138,45 @@ public abstract class AbstractLLMService<T> {
         return true;
     }
 
-    public ChatLanguageModel buildChatLLM(LLMBuilderProperties properties, String uuid) {
-        return new AdiChatLanguageModelImpl(doBuildChatLLM(properties), response -> {
-            String redisKey = MessageFormat.format(TOKEN_USAGE_KEY, uuid);
-            getStringRedisTemplate().expire(redisKey, Duration.ofMinutes(10));
+    /**
+     * 获取非流式模型客户端，每次请求的token消耗累加到{tokenUsage}
+     *
+     * @param properties 构建参数，可为空
+     * @param tokenUsage 所属提问的token消耗，为空时只记录日志
+     * @return
+     */
+    public ChatLanguageModel buildChatLLM(LLMBuilderProperties properties, TokenUsageAccumulator tokenUsage) {
+        refreshSettingIfChanged();
+        LLMBuilderProperties effective = normalize(properties);
+        ChatLanguageModel chatLanguageModel = chatModelCache.asMap().computeIfAbsent(effective.getTemperature(), key -> doBuildChatLLM(effective));
+        return new AdiChatLanguageModelImpl(chatLanguageModel, response -> {
+            if (null == response.tokenUsage()) {
+                return;
+            }
             int inputTokenCount = response.tokenUsage().inputTokenCount();
             int outputTokenCount = response.tokenUsage().outputTokenCount();
-            log.info("ChatLanguageModel token cost,uuid:{},inputTokenCount:{},outputTokenCount:{}", uuid, inputTokenCount, outputTokenCount);
-            getStringRedisTemplate().opsForList().rightPushAll(redisKey, String.valueOf(inputTokenCount), String.valueOf(outputTokenCount));
+            log.info("ChatLanguageModel token cost,model:{},inputTokenCount:{},outputTokenCount:{}", aiModel.getName(), inputTokenCount, outputTokenCount);
+            if (null != tokenUsage) {
+                tokenUsage.add(inputTokenCount, outputTokenCount);
+            }
         });
     }
 
     protected abstract ChatLanguageModel doBuildChatLLM(LLMBuilderProperties properties);
 
-    public abstract StreamingChatLanguageModel buildStreamingChatLLM(LLMBuilderProperties properties);
+    /**
+     * 获取流式模型客户端，相同构建参数的请求共用同一个客户端
+     *
+     * @param properties 构建参数
+     * @return 流式模型客户端
+     */
+    public StreamingChatLanguageModel buildStreamingChatLLM(LLMBuilderProperties properties) {
+        refreshSettingIfChanged();
+        LLMBuilderProperties effective = normalize(properties);
+        return streamingChatModelCache.asMap().computeIfAbsent(effective.getTemperature(), key -> doBuildStreamingChatLLM(effective));
+    }
+
+    protected abstract StreamingChatLanguageModel doBuildStreamingChatLLM(LLMBuilderProperties properties);
 
     protected abstract LLMException parseError(Object error);
 
@@ -118,7 +205,7 @@ public abstract class AbstractLLMService<T> {
             ChatMemoryProvider chatMemoryProvider = memoryId -> MessageWindowChatMemory.builder()
                     .id(memoryId)
                     .maxMessages(6)
-                    .chatMemoryStore(MapDBChatMemoryStore.getSingleton())
+                    .chatMemoryStore(AdiChatMemoryStore.getSingleton())
                     .build();
             IChatAssistant assistant = AdiAiServices.builder(IChatAssistant.class, aiModel.getMaxInputTokens())
                     .streamingChatLanguageModel(buildStreamingChatLLM(params.getLlmBuilderProperties()))
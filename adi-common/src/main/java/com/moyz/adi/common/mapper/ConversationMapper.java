@@ -2,6 +2,7 @@ package com.moyz.adi.common.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.moyz.adi.common.entity.Conversation;
+import com.moyz.adi.common.vo.AskPreflight;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -20,4 +21,21 @@ public interface ConversationMapper extends BaseMapper<Conversation> {
     Integer countCreatedByTimePeriod(@Param("beginTime") LocalDateTime beginTime, @Param("endTime") LocalDateTime endTime);
 
     Integer countAllCreated();
+
+    /**
+     * 累加对话消耗的token数
+     *
+     * @return 对话id，对话不存在时返回null
+     */
+    Long incrTokensReturningId(@Param("userId") long userId, @Param("uuid") String uuid, @Param("tokens") int tokens);
+
+    /**
+     * 一次查询获取提问前检查所需的数据：用户的对话数量、对话信息、重新生成时的原问题
+     *
+     * @param userId                 用户id
+     * @param uuid                   对话uuid
+     * @param regenerateQuestionUuid 重新生成时的原问题uuid，可为空
+     * @return 对话不存在时对话信息为空
+     */
+    AskPreflight askPreflight(@Param("userId") long userId, @Param("uuid") String uuid, @Param("regenerateQuestionUuid") String regenerateQuestionUuid);
 }
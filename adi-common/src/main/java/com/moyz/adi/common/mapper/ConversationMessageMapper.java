@@ -3,6 +3,7 @@ package com.moyz.adi.common.mapper;
 import com.moyz.adi.common.entity.ConversationMessage;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -15,4 +16,13 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface ConversationMessageMapper extends BaseMapper<ConversationMessage> {
 
+    /**
+     * 一条语句写入问题及答案，答案的parent_message_id为新写入问题的id
+     */
+    int insertQuestionAndAnswer(@Param("question") ConversationMessage question, @Param("answer") ConversationMessage answer);
+
+    /**
+     * 写入已有问题（如重新生成答案）的答案
+     */
+    int insertAnswerByQuestionUuid(@Param("answer") ConversationMessage answer, @Param("questionUuid") String questionUuid);
 }
@@ -13,7 +13,7 @@ public interface KnowledgeBaseEmbeddingMapper extends BaseMapper<KnowledgeBaseEm
 
     Page<KnowledgeBaseEmbedding> selectByItemUuid(Page<KnowledgeBaseEmbedding> page, @Param("kbItemUuid") String uuid);
 
-    boolean deleteByItemUuid(@Param("kbItemUuid") String uuid);
+    int deleteByItemUuid(@Param("kbItemUuid") String uuid);
 
     Integer countByKbUuid(@Param("kbUuid") String kbUuid);
 }
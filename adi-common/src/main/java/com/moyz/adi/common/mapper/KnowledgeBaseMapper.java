@@ -3,6 +3,7 @@ package com.moyz.adi.common.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.moyz.adi.common.entity.KnowledgeBase;
+import com.moyz.adi.common.vo.KbStatisticDelta;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -37,11 +38,21 @@ public interface KnowledgeBaseMapper extends BaseMapper<KnowledgeBase> {
     KnowledgeBase getByItemUuid(@Param("itemUuid") String itemUuid);
 
     /**
-     * 更新统计数据
+     * 重新统计（对账），图谱数据不在关系表中，由调用方统计后传入
      *
-     * @param uuid
+     * @param uuid             知识库uuid
+     * @param graphVertexCount 图谱顶点数
+     * @param graphEdgeCount   图谱边数
      */
-    void updateStatByUuid(@Param("uuid") String uuid);
+    void updateStatByUuid(@Param("uuid") String uuid, @Param("graphVertexCount") long graphVertexCount, @Param("graphEdgeCount") long graphEdgeCount);
+
+    /**
+     * 按增量更新统计数据
+     *
+     * @param uuid  知识库uuid
+     * @param delta 增量
+     */
+    void incrStatByUuid(@Param("uuid") String uuid, @Param("delta") KbStatisticDelta delta);
 
     Integer countCreatedByTimePeriod(@Param("beginTime") LocalDateTime beginTime, @Param("endTime") LocalDateTime endTime);
 
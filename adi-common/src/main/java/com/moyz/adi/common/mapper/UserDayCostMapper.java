@@ -5,9 +5,22 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 @Mapper
 public interface UserDayCostMapper extends BaseMapper<UserDayCost> {
     Long sumCostByDay(@Param("day") Integer day);
 
     Long sumCostByDayPeriod(@Param("beginDate") Integer beginDate, @Param("endDate") Integer endDate);
+
+    /**
+     * 累加用户当天的消耗，当天没有记录时新增（依赖唯一索引udx_user_day_cost）
+     */
+    int upsertCost(@Param("userId") long userId, @Param("day") int day, @Param("isFree") boolean isFree,
+                   @Param("tokens") int tokens, @Param("requestTimes") int requestTimes, @Param("drawTimes") int drawTimes);
+
+    /**
+     * 批量累加，同一批次中(user_id, day, is_free)不能重复
+     */
+    int batchUpsertCost(@Param("costs") List<UserDayCost> costs);
 }
@@ -0,0 +1,102 @@
+package com.moyz.adi.common.rag;
+
+import com.google.common.cache.Cache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.transformer.CompressingQueryTransformer;
+import dev.langchain4j.rag.query.transformer.QueryTransformer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * 按需压缩查询：结合历史记录将用户问题改写为独立的问题，需要额外请求一次LLM
+ * <ul>
+ *     <li>没有历史记录时不压缩</li>
+ *     <li>adaptive模式下，问题足够长且不包含指代词(如"它"、"这个"、"that")时视为独立的问题，不压缩</li>
+ *     <li>压缩结果按 历史记录+问题 的hash缓存</li>
+ * </ul>
+ */
+@Slf4j
+public class AdaptiveCompressingQueryTransformer implements QueryTransformer {
+
+    public static final String MODE_ALWAYS = "always";
+    public static final String MODE_ADAPTIVE = "adaptive";
+    public static final String MODE_NEVER = "never";
+
+    /**
+     * 指代上文的词，问题中出现时需要结合历史记录才能理解
+     */
+    private static final Pattern ZH_REFERENCE_PATTERN = Pattern.compile("[它他她其该]|这|那|上述|上面|前面|刚才|之前|继续|还有|呢[?？]?$");
+    private static final Pattern EN_REFERENCE_PATTERN = Pattern.compile("\\b(it|its|this|that|these|those|they|them|their|he|she|his|her|above|previous|former|latter|more|also|else|again)\\b");
+
+    private final CompressingQueryTransformer delegate;
+
+    private final String mode;
+
+    private final int minSelfContainedLength;
+
+    private final Cache<String, String> cache;
+
+    /**
+     * @param chatLanguageModel      用于压缩查询的模型
+     * @param mode                   always, adaptive, never
+     * @param minSelfContainedLength adaptive模式下，问题长度不小于该值且不包含指代词时视为独立的问题
+     * @param cache                  压缩结果缓存，可为空
+     */
+    public AdaptiveCompressingQueryTransformer(ChatLanguageModel chatLanguageModel, String mode, int minSelfContainedLength, Cache<String, String> cache) {
+        this.delegate = new CompressingQueryTransformer(chatLanguageModel);
+        this.mode = mode;
+        this.minSelfContainedLength = minSelfContainedLength;
+        this.cache = cache;
+    }
+
+    @Override
+    public Collection<Query> transform(Query query) {
+        List<ChatMessage> chatMemory = null == query.metadata() ? null : query.metadata().chatMemory();
+        if (null == chatMemory || chatMemory.isEmpty() || MODE_NEVER.equalsIgnoreCase(mode)) {
+            return Collections.singletonList(query);
+        }
+        if (MODE_ADAPTIVE.equalsIgnoreCase(mode) && isSelfContained(query.text())) {
+            log.debug("Skip query compression,query:{}", query.text());
+            return Collections.singletonList(query);
+        }
+        if (null == cache) {
+            return delegate.transform(query);
+        }
+        try {
+            String compressed = cache.get(cacheKey(chatMemory, query.text()), () -> delegate.transform(query).iterator().next().text());
+            return Collections.singletonList(Query.from(compressed, query.metadata()));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private boolean isSelfContained(String question) {
+        String text = question.strip();
+        if (text.length() < minSelfContainedLength) {
+            return false;
+        }
+        return !ZH_REFERENCE_PATTERN.matcher(text).find() && !EN_REFERENCE_PATTERN.matcher(text.toLowerCase(Locale.ROOT)).find();
+    }
+
+    private static String cacheKey(List<ChatMessage> chatMemory, String question) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (ChatMessage message : chatMemory) {
+            hasher.putString(message.type().name(), StandardCharsets.UTF_8);
+            hasher.putString(String.valueOf(message.text()), StandardCharsets.UTF_8);
+            hasher.putByte((byte) 0);
+        }
+        hasher.putString(question, StandardCharsets.UTF_8);
+        return hasher.hash().toString();
+    }
+}
@@ -54,6 +54,11 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
 
     private final boolean breakIfSearchMissed;
 
+    /**
+     * 新增的特性: 查询文本的向量缓存，为空时每次都调用向量模型
+     */
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
     public AdiEmbeddingStoreContentRetriever(EmbeddingStore<TextSegment> embeddingStore,
                                           EmbeddingModel embeddingModel) {
         this(
@@ -63,7 +68,8 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
                 DEFAULT_MAX_RESULTS,
                 DEFAULT_MIN_SCORE,
                 DEFAULT_FILTER,
-                false
+                false,
+                null
         );
     }
 
@@ -77,7 +83,8 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
                 (query) -> maxResults,
                 DEFAULT_MIN_SCORE,
                 DEFAULT_FILTER,
-                false
+                false,
+                null
         );
     }
 
@@ -92,7 +99,8 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
                 (query) -> maxResults,
                 (query) -> minScore,
                 DEFAULT_FILTER,
-                false
+                false,
+                null
         );
     }
 
@@ -102,7 +110,8 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
                                               Function<Query, Integer> dynamicMaxResults,
                                               Function<Query, Double> dynamicMinScore,
                                               Function<Query, Filter> dynamicFilter,
-                                              Boolean breakIfSearchMissed) {
+                                              Boolean breakIfSearchMissed,
+                                              QueryEmbeddingCache queryEmbeddingCache) {
         this.displayName = getOrDefault(displayName, DEFAULT_DISPLAY_NAME);
         this.embeddingStore = ensureNotNull(embeddingStore, "embeddingStore");
         this.embeddingModel = ensureNotNull(
@@ -113,6 +122,7 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
         this.minScoreProvider = getOrDefault(dynamicMinScore, DEFAULT_MIN_SCORE);
         this.filterProvider = getOrDefault(dynamicFilter, DEFAULT_FILTER);
         this.breakIfSearchMissed = breakIfSearchMissed;
+        this.queryEmbeddingCache = queryEmbeddingCache;
     }
 
     private static EmbeddingModel loadEmbeddingModel() {
@@ -144,6 +154,8 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
 
         private Boolean breakIfSearchMissed;
 
+        private QueryEmbeddingCache queryEmbeddingCache;
+
         AdiEmbeddingStoreContentRetrieverBuilder() {
         }
 
@@ -203,8 +215,13 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
             return this;
         }
 
+        public AdiEmbeddingStoreContentRetrieverBuilder queryEmbeddingCache(QueryEmbeddingCache queryEmbeddingCache) {
+            this.queryEmbeddingCache = queryEmbeddingCache;
+            return this;
+        }
+
         public AdiEmbeddingStoreContentRetriever build() {
-            return new AdiEmbeddingStoreContentRetriever(this.displayName, this.embeddingStore, this.embeddingModel, this.dynamicMaxResults, this.dynamicMinScore, this.dynamicFilter, this.breakIfSearchMissed);
+            return new AdiEmbeddingStoreContentRetriever(this.displayName, this.embeddingStore, this.embeddingModel, this.dynamicMaxResults, this.dynamicMinScore, this.dynamicFilter, this.breakIfSearchMissed, this.queryEmbeddingCache);
         }
 
 
@@ -224,7 +241,9 @@ public class AdiEmbeddingStoreContentRetriever implements ContentRetriever {
     @Override
     public List<Content> retrieve(Query query) {
 
-        Embedding embeddedQuery = embeddingModel.embed(query.text()).content();
+        Embedding embeddedQuery = null == queryEmbeddingCache
+                ? embeddingModel.embed(query.text()).content()
+                : queryEmbeddingCache.embed(embeddingModel, query.text());
 
         EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
                 .queryEmbedding(embeddedQuery)
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -40,6 +41,7 @@ import static java.util.Collections.*;
 import static java.util.Collections.emptyMap;
 import static java.util.concurrent.CompletableFuture.allOf;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toMap;
@@ -58,6 +60,11 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
     private final ContentInjector contentInjector;
     private final Executor executor;
 
+    /**
+     * 多个召回器并行召回时单个召回器的超时时间，超时的召回器结果视为空
+     */
+    private final Duration retrieverTimeout;
+
     private Consumer<InputAdaptorMsg> inputAdaptorMsgConsumer;
     private int maxInputTokens;
 
@@ -67,6 +74,7 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
                                               ContentAggregator contentAggregator,
                                               ContentInjector contentInjector,
                                               Executor executor,
+                                              Duration retrieverTimeout,
 
                                               Consumer<InputAdaptorMsg> inputAdaptorMsgConsumer,
                                               int maxInputTokens) {
@@ -74,18 +82,30 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
         this.queryRouter = ensureNotNull(queryRouter, "queryRouter");
         this.contentAggregator = getOrDefault(contentAggregator, DefaultContentAggregator::new);
         this.contentInjector = getOrDefault(contentInjector, DefaultContentInjector::new);
-        this.executor = getOrDefault(executor, AdiKnowledgeBaseRetrievalAugmentor::createDefaultExecutor);
+        this.executor = getOrDefault(executor, () -> DefaultExecutorHolder.EXECUTOR);
+        this.retrieverTimeout = retrieverTimeout;
 
         this.inputAdaptorMsgConsumer = inputAdaptorMsgConsumer;
         this.maxInputTokens = maxInputTokens;
     }
 
+    /**
+     * 未指定executor时使用的共享线程池（有界，线程及队列都满时由调用线程执行）
+     */
+    private static class DefaultExecutorHolder {
+        private static final ExecutorService EXECUTOR = createDefaultExecutor();
+    }
+
     private static ExecutorService createDefaultExecutor() {
-        return new ThreadPoolExecutor(
-                0, Integer.MAX_VALUE,
-                1, SECONDS,
-                new SynchronousQueue<>()
+        int processorsNum = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                processorsNum, processorsNum * 4,
+                60, SECONDS,
+                new LinkedBlockingQueue<>(256),
+                new ThreadPoolExecutor.CallerRunsPolicy()
         );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -171,7 +191,7 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
     private CompletableFuture<Collection<List<Content>>> retrieveFromAll(Collection<ContentRetriever> retrievers,
                                                                          Query query) {
         List<CompletableFuture<List<Content>>> futureContents = retrievers.stream()
-                .map(retriever -> supplyAsync(() -> retrieve(retriever, query), executor))
+                .map(retriever -> retrieveWithTimeout(retriever, query))
                 .toList();
 
         return allOf(futureContents.toArray(new CompletableFuture[0]))
@@ -181,6 +201,26 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
                                 .toList());
     }
 
+    /**
+     * 召回超时时返回空结果，使其他召回器的结果（如图谱召回超时时的向量召回结果）仍可使用；其他异常照常抛出
+     * <br/>超时后召回任务不会被中断，仍会占用线程直到结束
+     */
+    private CompletableFuture<List<Content>> retrieveWithTimeout(ContentRetriever retriever, Query query) {
+        CompletableFuture<List<Content>> future = supplyAsync(() -> retrieve(retriever, query), executor);
+        if (null == retrieverTimeout || retrieverTimeout.isZero() || retrieverTimeout.isNegative()) {
+            return future;
+        }
+        return future.orTimeout(retrieverTimeout.toMillis(), MILLISECONDS)
+                .exceptionally(throwable -> {
+                    Throwable cause = throwable instanceof CompletionException && null != throwable.getCause() ? throwable.getCause() : throwable;
+                    if (cause instanceof TimeoutException) {
+                        log.warn("Retrieve timeout,ignore the contents of retriever '{}',query:'{}',timeout:{}ms", retriever, query.text(), retrieverTimeout.toMillis());
+                        return emptyList();
+                    }
+                    throw throwable instanceof CompletionException completionException ? completionException : new CompletionException(cause);
+                });
+    }
+
     private static List<Content> retrieve(ContentRetriever retriever, Query query) {
         List<Content> contents = retriever.retrieve(query);
         log(query, retriever, contents);
@@ -301,6 +341,7 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
         private ContentAggregator contentAggregator;
         private ContentInjector contentInjector;
         private Executor executor;
+        private Duration retrieverTimeout;
 
         private Consumer<InputAdaptorMsg> inputAdaptorMsgConsumer;
         private int maxInputTokens;
@@ -338,6 +379,11 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
             return this;
         }
 
+        public AdiKnowledgeBaseRetrievalAugmentor.AdiKnowledgeBaseRetrievalAugmentorBuilder retrieverTimeout(Duration retrieverTimeout) {
+            this.retrieverTimeout = retrieverTimeout;
+            return this;
+        }
+
         public AdiKnowledgeBaseRetrievalAugmentor.AdiKnowledgeBaseRetrievalAugmentorBuilder inputAdaptorMsgConsumer(Consumer<InputAdaptorMsg> inputAdaptorMsgConsumer) {
             this.inputAdaptorMsgConsumer = inputAdaptorMsgConsumer;
             return this;
@@ -349,11 +395,11 @@ public class AdiKnowledgeBaseRetrievalAugmentor implements RetrievalAugmentor {
         }
 
         public AdiKnowledgeBaseRetrievalAugmentor build() {
-            return new AdiKnowledgeBaseRetrievalAugmentor(this.queryTransformer, this.queryRouter, this.contentAggregator, this.contentInjector, this.executor, this.inputAdaptorMsgConsumer, this.maxInputTokens);
+            return new AdiKnowledgeBaseRetrievalAugmentor(this.queryTransformer, this.queryRouter, this.contentAggregator, this.contentInjector, this.executor, this.retrieverTimeout, this.inputAdaptorMsgConsumer, this.maxInputTokens);
         }
 
         public String toString() {
-            return "AdiKnowledgeBaseRetrievalAugmentor.AdiKnowledgeBaseRetrievalAugmentorBuilder(queryTransformer=" + this.queryTransformer + ", queryRouter=" + this.queryRouter + ", contentAggregator=" + this.contentAggregator + ", contentInjector=" + this.contentInjector + ", executor=" + this.executor + ", inputAdaptorMsgConsumer=" + this.inputAdaptorMsgConsumer + ", maxInputTokens=" + this.maxInputTokens + ")";
+            return "AdiKnowledgeBaseRetrievalAugmentor.AdiKnowledgeBaseRetrievalAugmentorBuilder(queryTransformer=" + this.queryTransformer + ", queryRouter=" + this.queryRouter + ", contentAggregator=" + this.contentAggregator + ", contentInjector=" + this.contentInjector + ", executor=" + this.executor + ", retrieverTimeout=" + this.retrieverTimeout + ", inputAdaptorMsgConsumer=" + this.inputAdaptorMsgConsumer + ", maxInputTokens=" + this.maxInputTokens + ")";
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+package com.moyz.adi.common.rag;
+
+import com.moyz.adi.common.util.AdiPgVectorFilterMapper;
+import com.moyz.adi.common.util.JsonUtil;
+import com.pgvector.PGvector;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+import static dev.langchain4j.internal.ValidationUtils.ensureNotNull;
+
+/**
+ * 在PgVectorEmbeddingStore的基础上，把常用的metadata字段（如kb_uuid、kb_item_uuid）生成为独立的列并建立B-tree索引
+ * <ul>
+ *     <li>写入、删除全部等操作委托给原有的EmbeddingStore，独立列由数据库根据metadata自动生成，写入方无需改动</li>
+ *     <li>搜索及按条件删除时通过{@link AdiPgVectorFilterMapper}把Filter转换到独立列上，可以同时使用B-tree索引及向量索引</li>
+ *     <li>搜索按距离排序(order by embedding <=> ?)，以便使用hnsw/ivfflat索引，分数过滤在取回结果后进行</li>
+ * </ul>
+ * 生成列及索引在docs/create.sql(新安装)及docs/upgrade.sql(已有数据库)中创建，增加生成列会重写整张表，应在业务低峰期执行；
+ * 启动时只检查列是否存在，缺少的列仍按metadata ->> 'key'过滤
+ */
+@Slf4j
+public class AdiPgVectorColumnEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final String METADATA_COLUMN = "metadata";
+
+    private final EmbeddingStore<TextSegment> delegate;
+
+    private final DataSource dataSource;
+
+    private final String table;
+
+    private final List<String> metadataColumns;
+
+    private AdiPgVectorFilterMapper filterMapper;
+
+    /**
+     * @param delegate        原有的EmbeddingStore(负责建表及写入)
+     * @param dataSource      向量搜索连接池
+     * @param table           向量表
+     * @param metadataColumns 需要生成独立列的metadata字段
+     */
+    public AdiPgVectorColumnEmbeddingStore(EmbeddingStore<TextSegment> delegate, DataSource dataSource, String table, List<String> metadataColumns) {
+        this.delegate = ensureNotNull(delegate, "delegate");
+        this.dataSource = ensureNotNull(dataSource, "dataSource");
+        this.table = table;
+        this.metadataColumns = metadataColumns;
+        this.filterMapper = new AdiPgVectorFilterMapper(METADATA_COLUMN, new HashSet<>(metadataColumns));
+    }
+
+    /**
+     * 检查生成列是否存在，不存在的列不使用独立列过滤
+     */
+    public void init() {
+        Set<String> existColumns = new HashSet<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("select column_name from information_schema.columns where table_schema = current_schema() and table_name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    existColumns.add(resultSet.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            log.error("check metadata columns error,table:{}", table, e);
+            throw new RuntimeException(e);
+        }
+        Set<String> typedColumns = new HashSet<>();
+        for (String column : metadataColumns) {
+            if (existColumns.contains(column)) {
+                typedColumns.add(column);
+            } else {
+                log.warn("metadata column not exists,filter by metadata instead,please execute docs/upgrade.sql,table:{},column:{}", table, column);
+            }
+        }
+        this.filterMapper = new AdiPgVectorFilterMapper(METADATA_COLUMN, typedColumns);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return delegate.add(embedding);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        delegate.add(id, embedding);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        return delegate.add(embedding, textSegment);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return delegate.addAll(embeddings);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> embedded) {
+        return delegate.addAll(embeddings, embedded);
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        delegate.removeAll(ids);
+    }
+
+    @Override
+    public void removeAll() {
+        delegate.removeAll();
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        ensureNotNull(filter, "filter");
+        String sql = String.format("DELETE FROM %s WHERE %s", table, filterMapper.map(filter));
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            int count = stmt.executeUpdate(sql);
+            log.info("Remove embeddings by filter,table:{},count:{}", table, count);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        String whereClause = null == request.filter() ? "" : "WHERE " + filterMapper.map(request.filter());
+        String sql = String.format(
+                "SELECT (2 - distance) / 2 AS score, embedding_id, embedding, text, %s FROM (" +
+                        "SELECT embedding <=> ? AS distance, embedding_id, embedding, text, %s FROM %s %s ORDER BY embedding <=> ? LIMIT ?" +
+                        ") t",
+                METADATA_COLUMN, METADATA_COLUMN, table, whereClause);
+        List<EmbeddingMatch<TextSegment>> result = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); PreparedStatement stmt = connection.prepareStatement(sql)) {
+            PGvector referenceVector = new PGvector(request.queryEmbedding().vector());
+            stmt.setObject(1, referenceVector);
+            stmt.setObject(2, referenceVector);
+            stmt.setInt(3, request.maxResults());
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    double score = resultSet.getDouble("score");
+                    if (score < request.minScore()) {
+                        continue;
+                    }
+                    String embeddingId = resultSet.getString("embedding_id");
+                    Embedding embedding = new Embedding(new PGvector(resultSet.getString("embedding")).toArray());
+                    String text = resultSet.getString("text");
+                    TextSegment textSegment = null;
+                    if (StringUtils.isNotBlank(text)) {
+                        String metadataJson = Optional.ofNullable(resultSet.getString(METADATA_COLUMN)).orElse("{}");
+                        textSegment = TextSegment.from(text, Metadata.from(JsonUtil.toMap(metadataJson)));
+                    }
+                    result.add(new EmbeddingMatch<>(score, embeddingId, embedding, textSegment));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return new EmbeddingSearchResult<>(result);
+    }
+}
@@ -5,20 +5,22 @@ import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.util.GraphStoreUtil;
 import com.moyz.adi.common.util.JsonUtil;
 import com.moyz.adi.common.vo.*;
+import dev.langchain4j.store.embedding.filter.Filter;
 import lombok.Builder;
 import org.apache.age.jdbc.base.Agtype;
 import org.apache.age.jdbc.base.type.AgtypeMap;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Triple;
 import org.postgresql.jdbc.PgConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import static com.moyz.adi.common.enums.ErrorEnum.B_DB_ERROR;
 import static dev.langchain4j.internal.Utils.getOrDefault;
@@ -32,27 +34,38 @@ public class ApacheAgeGraphStore {
     private static final String VAR_PREFIX_1 = "filter1";
     private static final String VAR_PREFIX_2 = "filter2";
     private static final String VAR_PREFIX_3 = "filter3";
-    private final String host;
-    private final Integer port;
-    private final String user;
-    private final String password;
-    private final String database;
+
+    /**
+     * AGE会话初始化语句，由连接池在创建连接时执行一次
+     */
+    public static final String SESSION_INIT_SQL = "LOAD 'age'; SET search_path = ag_catalog, \"$user\", public";
+
+    /**
+     * 默认的顶点、边标签表，无标签的顶点及边存放其中
+     */
+    private static final String DEFAULT_VERTEX_LABEL = "_ag_label_vertex";
+    private static final String EDGE_LABEL = "RELTYPE";
+
+    private final DataSource dataSource;
     private final String graph;
 
+    /**
+     * 已建立索引的标签
+     */
+    private final Set<String> indexedLabels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param dataSource     连接池，连接需已执行{@link #SESSION_INIT_SQL}
+     * @param graphName      图名称
+     * @param createGraph    图不存在时是否创建
+     * @param dropGraphFirst 是否先删除图，一般用于测试
+     */
     @Builder
-    public ApacheAgeGraphStore(String host,
-                               Integer port,
-                               String user,
-                               String password,
-                               String database,
+    public ApacheAgeGraphStore(DataSource dataSource,
                                String graphName,
                                Boolean createGraph,
                                Boolean dropGraphFirst) {
-        this.host = ensureNotBlank(host, "host");
-        this.port = ensureGreaterThanZero(port, "port");
-        this.user = ensureNotBlank(user, "user");
-        this.password = ensureNotBlank(password, "password");
-        this.database = ensureNotBlank(database, "database");
+        this.dataSource = ensureNotNull(dataSource, "dataSource");
         this.graph = ensureNotBlank(graphName, "graph");
 
         createGraph = getOrDefault(createGraph, true);
@@ -73,6 +86,27 @@ public class ApacheAgeGraphStore {
             log.error("ApacheAgeGraphStore init error", e);
             throw new BaseException(B_DB_ERROR);
         }
+        ensureLabelIndexes(DEFAULT_VERTEX_LABEL);
+    }
+
+    /**
+     * AGE的标签表默认没有索引，按id或属性匹配时需扫描整个标签表
+     * <br/>为标签表创建id(btree)及properties(gin)索引，使 {@code (v {name: ...})} 形式的匹配可以使用索引
+     *
+     * @param label 标签，标签表在该标签的第一个顶点或边写入后才存在
+     */
+    private void ensureLabelIndexes(String label) {
+        if (indexedLabels.contains(label)) {
+            return;
+        }
+        try (Connection connection = setupConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(String.format("CREATE INDEX IF NOT EXISTS \"%s_id_idx\" ON %s.\"%s\" USING btree (id)", label, graph, label));
+            stmt.execute(String.format("CREATE INDEX IF NOT EXISTS \"%s_props_idx\" ON %s.\"%s\" USING gin (properties)", label, graph, label));
+            indexedLabels.add(label);
+        } catch (SQLException e) {
+            log.error("create label index error,label:{}", label, e);
+        }
     }
 
     public void addVertexes(List<GraphVertex> vertexes) {
@@ -420,6 +454,248 @@ public class ApacheAgeGraphStore {
         }
     }
 
+    /**
+     * 按名称批量查询顶点（一次查询）
+     *
+     * @param names          顶点名称
+     * @param metadataFilter metadata过滤条件
+     * @return 顶点列表
+     */
+    public List<GraphVertex> searchVerticesByNames(Collection<String> names, Filter metadataFilter) {
+        if (CollectionUtils.isEmpty(names)) {
+            return new ArrayList<>();
+        }
+        String whereClause = buildMetadataWhereClause(metadataFilter, "v");
+        String cypher = """
+                match (v)
+                where v.name in $names%s
+                return v
+                """.formatted(StringUtils.isNotBlank(whereClause) ? " and " + whereClause : "");
+        return executeBatch(cypher, "v agtype", Map.of("names", new ArrayList<>(names)), this::getVerticesFromResultSet);
+    }
+
+    /**
+     * 批量新增顶点，相同标签的顶点使用一条UNWIND语句创建
+     *
+     * @param vertices 顶点列表
+     * @return 新增的顶点(含id)
+     */
+    public List<GraphVertex> addVertices(List<GraphVertex> vertices) {
+        List<GraphVertex> result = new ArrayList<>();
+        Map<String, List<Map<String, Object>>> labelToRows = new LinkedHashMap<>();
+        for (GraphVertex vertex : vertices) {
+            ensureNotEmpty(vertex.getMetadata(), "Metadata");
+            Map<String, Object> row = new HashMap<>();
+            row.put("name", vertex.getName());
+            row.put("textSegmentId", StringUtils.defaultString(vertex.getTextSegmentId()));
+            row.put("description", StringUtils.defaultString(vertex.getDescription()));
+            row.put("metadata", vertex.getMetadata());
+            labelToRows.computeIfAbsent(StringUtils.defaultString(vertex.getLabel()), key -> new ArrayList<>()).add(row);
+        }
+        for (Map.Entry<String, List<Map<String, Object>>> entry : labelToRows.entrySet()) {
+            String label = entry.getKey();
+            String cypher = """
+                    unwind $rows as row
+                    create (v%s {name:row.name,textSegmentId:row.textSegmentId,description:row.description,metadata:row.metadata})
+                    return v
+                    """.formatted(StringUtils.isNotBlank(label) ? ":" + label : "");
+            result.addAll(executeBatch(cypher, "v agtype", Map.of("rows", entry.getValue()), this::getVerticesFromResultSet));
+            ensureLabelIndexes(StringUtils.isNotBlank(label) ? label : DEFAULT_VERTEX_LABEL);
+        }
+        return result;
+    }
+
+    /**
+     * 按id批量更新顶点的textSegmentId、description及metadata
+     * <br/>通过标签及名称匹配(可使用索引)，再以id确认，避免按id逐行扫描标签表
+     *
+     * @param vertices 顶点列表，需包含id、label及name
+     */
+    public void updateVertices(List<GraphVertex> vertices) {
+        if (CollectionUtils.isEmpty(vertices)) {
+            return;
+        }
+        Map<String, List<Map<String, Object>>> labelToRows = new LinkedHashMap<>();
+        for (GraphVertex vertex : vertices) {
+            ensureNotNull(vertex.getId(), "Vertex id");
+            labelToRows.computeIfAbsent(StringUtils.defaultString(vertex.getLabel()), key -> new ArrayList<>()).add(Map.of(
+                    "id", vertex.getId(),
+                    "name", ensureNotNull(vertex.getName(), "Vertex name"),
+                    "textSegmentId", StringUtils.defaultString(vertex.getTextSegmentId()),
+                    "description", StringUtils.defaultString(vertex.getDescription()),
+                    "metadata", vertex.getMetadata()
+            ));
+        }
+        for (Map.Entry<String, List<Map<String, Object>>> entry : labelToRows.entrySet()) {
+            String label = entry.getKey();
+            String cypher = """
+                    unwind $rows as row
+                    match (v%s {name:row.name})
+                    where id(v) = row.id
+                    set v.textSegmentId=row.textSegmentId,v.description=row.description,v.metadata=row.metadata
+                    return v
+                    """.formatted(StringUtils.isNotBlank(label) ? ":" + label : "");
+            executeBatch(cypher, "v agtype", Map.of("rows", entry.getValue()), this::getVerticesFromResultSet);
+        }
+    }
+
+    /**
+     * 批量查询两端顶点名称都在{names}中的边（一次查询）
+     *
+     * @param names          顶点名称
+     * @param metadataFilter 顶点的metadata过滤条件
+     * @return 边及其两端顶点
+     */
+    public List<Triple<GraphVertex, GraphEdge, GraphVertex>> searchEdgesByVertexNames(Collection<String> names, Filter metadataFilter) {
+        if (CollectionUtils.isEmpty(names)) {
+            return new ArrayList<>();
+        }
+        String whereClause1 = buildMetadataWhereClause(metadataFilter, "v1");
+        String whereClause2 = buildMetadataWhereClause(metadataFilter, "v2");
+        String cypher = """
+                match (v1)-[e]->(v2)
+                where v1.name in $names and v2.name in $names%s
+                return v1,e,v2
+                """.formatted(StringUtils.isNotBlank(whereClause1) ? " and " + whereClause1 + " and " + whereClause2 : "");
+        return executeBatch(cypher, "v1 agtype,e agtype,v2 agtype", Map.of("names", new ArrayList<>(names)), this::getEdgesFromResultSet);
+    }
+
+    /**
+     * 批量新增边，两端顶点通过{@link GraphEdge#getStartId()}、{@link GraphEdge#getEndId()}指定，按顶点名称匹配以使用索引
+     *
+     * @param edges 边列表
+     */
+    public void addEdges(List<GraphEdge> edges) {
+        if (CollectionUtils.isEmpty(edges)) {
+            return;
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (GraphEdge edge : edges) {
+            rows.add(Map.of(
+                    "startId", ensureNotNull(edge.getStartId(), "Start id"),
+                    "endId", ensureNotNull(edge.getEndId(), "End id"),
+                    "startName", ensureNotNull(edge.getSourceName(), "Source name"),
+                    "endName", ensureNotNull(edge.getTargetName(), "Target name"),
+                    "textSegmentId", StringUtils.defaultString(edge.getTextSegmentId()),
+                    "weight", edge.getWeight(),
+                    "description", StringUtils.defaultString(edge.getDescription()),
+                    "metadata", edge.getMetadata()
+            ));
+        }
+        String cypher = """
+                unwind $rows as row
+                match (v1 {name:row.startName}), (v2 {name:row.endName})
+                where id(v1) = row.startId and id(v2) = row.endId
+                create (v1)-[e:%s {textSegmentId:row.textSegmentId,weight:row.weight,description:row.description,metadata:row.metadata}]->(v2)
+                return e
+                """.formatted(EDGE_LABEL);
+        executeBatch(cypher, "e agtype", Map.of("rows", rows), resultSet -> null);
+        ensureLabelIndexes(EDGE_LABEL);
+    }
+
+    /**
+     * 按id批量更新边的textSegmentId、weight、description及metadata
+     *
+     * @param edges 边列表，需包含id及两端顶点的名称
+     */
+    public void updateEdges(List<GraphEdge> edges) {
+        if (CollectionUtils.isEmpty(edges)) {
+            return;
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (GraphEdge edge : edges) {
+            rows.add(Map.of(
+                    "id", ensureNotNull(edge.getId(), "Edge id"),
+                    "startName", ensureNotNull(edge.getSourceName(), "Source name"),
+                    "endName", ensureNotNull(edge.getTargetName(), "Target name"),
+                    "textSegmentId", StringUtils.defaultString(edge.getTextSegmentId()),
+                    "weight", edge.getWeight(),
+                    "description", StringUtils.defaultString(edge.getDescription()),
+                    "metadata", edge.getMetadata()
+            ));
+        }
+        String cypher = """
+                unwind $rows as row
+                match ({name:row.startName})-[e]->({name:row.endName})
+                where id(e) = row.id
+                set e.textSegmentId=row.textSegmentId,e.weight=row.weight,e.description=row.description,e.metadata=row.metadata
+                return e
+                """;
+        executeBatch(cypher, "e agtype", Map.of("rows", rows), resultSet -> null);
+    }
+
+    /**
+     * 统计满足metadata过滤条件的顶点数量
+     *
+     * @param metadataFilter metadata过滤条件
+     * @return 顶点数量
+     */
+    public long countVertices(Filter metadataFilter) {
+        String whereClause = buildMetadataWhereClause(metadataFilter, "v");
+        String cypher = """
+                match (v)
+                %s
+                return count(v)
+                """.formatted(StringUtils.isNotBlank(whereClause) ? "where " + whereClause : "");
+        return executeBatch(cypher, "total agtype", Map.of(), this::getCountFromResultSet);
+    }
+
+    /**
+     * 统计起始顶点满足metadata过滤条件的边数量
+     *
+     * @param metadataFilter 起始顶点的metadata过滤条件
+     * @return 边数量
+     */
+    public long countEdges(Filter metadataFilter) {
+        String whereClause = buildMetadataWhereClause(metadataFilter, "v1");
+        String cypher = """
+                match (v1)-[e]->()
+                %s
+                return count(e)
+                """.formatted(StringUtils.isNotBlank(whereClause) ? "where " + whereClause : "");
+        return executeBatch(cypher, "total agtype", Map.of(), this::getCountFromResultSet);
+    }
+
+    private long getCountFromResultSet(ResultSet resultSet) {
+        try {
+            return resultSet.next() ? resultSet.getObject(1, Agtype.class).getLong() : 0;
+        } catch (SQLException e) {
+            log.error("getCountFromResultSet error", e);
+            throw new BaseException(B_DB_ERROR);
+        }
+    }
+
+    private String buildMetadataWhereClause(Filter metadataFilter, String alias) {
+        if (null == metadataFilter) {
+            return StringUtils.EMPTY;
+        }
+        return GraphStoreUtil.buildWhereClause(GraphSearchCondition.builder().metadataFilter(metadataFilter).build(), alias, VAR_PREFIX_DEFAULT);
+    }
+
+    /**
+     * 执行参数化的cypher语句，参数以agtype传入
+     */
+    private <T> T executeBatch(String cypher, String returnColumns, Map<String, Object> args, Function<ResultSet, T> resultSetHandler) {
+        String prepareSql = """
+                select * from cypher('%s', $$
+                %s
+                $$, ?) as (%s);
+                """.formatted(graph, cypher, returnColumns);
+        log.debug("executeBatch prepareSql:{}", prepareSql);
+        try (Connection connection = setupConnection();
+             PreparedStatement stmt = connection.prepareStatement(prepareSql)) {
+            Agtype agtype = new Agtype();
+            agtype.setValue(JsonUtil.toJson(args));
+            stmt.setObject(1, agtype);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSetHandler.apply(resultSet);
+            }
+        } catch (SQLException e) {
+            log.error("executeBatch error", e);
+            throw new BaseException(B_DB_ERROR);
+        }
+    }
+
     private List<Triple<GraphVertex, GraphEdge, GraphVertex>> getEdgesFromResultSet(ResultSet resultSet) {
         List<Triple<GraphVertex, GraphEdge, GraphVertex>> result = new ArrayList<>();
         try {
@@ -508,18 +784,12 @@ public class ApacheAgeGraphStore {
                 .build();
     }
 
-    @SuppressWarnings("java:S2095")
+    /**
+     * 从连接池获取连接，AGE会话已在连接创建时初始化；agtype类型映射仅在本地注册，不产生数据库交互
+     */
     private Connection setupConnection() throws SQLException {
-        PgConnection connection = DriverManager.getConnection(
-                String.format("jdbc:postgresql://%s:%s/%s", host, port, database),
-                user,
-                password
-        ).unwrap(PgConnection.class);
-        try (Statement stmt = connection.createStatement()) {
-            connection.addDataType("agtype", Agtype.class);
-            stmt.execute("LOAD 'age'");
-            stmt.execute("SET search_path = ag_catalog, \"$user\", public;");
-        }
+        Connection connection = dataSource.getConnection();
+        connection.unwrap(PgConnection.class).addDataType("agtype", Agtype.class);
         return connection;
     }
 }
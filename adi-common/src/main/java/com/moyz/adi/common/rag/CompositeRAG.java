@@ -1,5 +1,8 @@
 package com.moyz.adi.common.rag;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.moyz.adi.common.config.RagProperties;
 import com.moyz.adi.common.entity.AiModel;
 import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.exception.BaseException;
@@ -8,7 +11,7 @@ import com.moyz.adi.common.helper.SSEEmitterHelper;
 import com.moyz.adi.common.interfaces.AbstractLLMService;
 import com.moyz.adi.common.interfaces.IChatAssistant;
 import com.moyz.adi.common.interfaces.TriConsumer;
-import com.moyz.adi.common.util.MapDBChatMemoryStore;
+import com.moyz.adi.common.util.AdiChatMemoryStore;
 import com.moyz.adi.common.vo.*;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
@@ -18,19 +21,22 @@ import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
-import dev.langchain4j.rag.query.transformer.CompressingQueryTransformer;
 import dev.langchain4j.rag.query.transformer.QueryTransformer;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.service.TokenStream;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.moyz.adi.common.enums.ErrorEnum.B_BREAK_SEARCH;
 import static com.moyz.adi.common.enums.ErrorEnum.B_LLM_SERVICE_DISABLED;
@@ -50,6 +56,26 @@ public class CompositeRAG {
     private SSEEmitterHelper sseEmitterHelper;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource(name = "retrievalExecutor")
+    private Executor retrievalExecutor;
+    @Resource
+    private RagProperties ragProperties;
+
+    /**
+     * 查询压缩结果缓存，key: 历史记录+问题的hash
+     */
+    private Cache<String, String> queryCompressionCache;
+
+    @PostConstruct
+    public void init() {
+        RagProperties.QueryCompression config = ragProperties.getQueryCompression();
+        if (config.getCacheMaxSize() > 0) {
+            queryCompressionCache = CacheBuilder.newBuilder()
+                    .maximumSize(config.getCacheMaxSize())
+                    .expireAfterWrite(config.getCacheTtlInMinutes(), TimeUnit.MINUTES)
+                    .build();
+        }
+    }
 
     public List<ContentRetriever> createRetriever(ChatLanguageModel chatLanguageModel, Map<String, String> metadataCond, int maxResults, double minScore, boolean breakIfSearchMissed) {
         ContentRetriever contentRetriever1 = embeddingRAGService.createRetriever(metadataCond, maxResults, minScore, breakIfSearchMissed);
@@ -111,12 +137,14 @@ public class CompositeRAG {
             ChatMemoryProvider chatMemoryProvider = memoryId -> MessageWindowChatMemory.builder()
                     .id(memoryId)
                     .maxMessages(2)
-                    .chatMemoryStore(MapDBChatMemoryStore.getSingleton())
+                    .chatMemoryStore(AdiChatMemoryStore.getSingleton())
                     .build();
-            QueryTransformer queryTransformer = new CompressingQueryTransformer(llmService.buildChatLLM(params.getLlmBuilderProperties(), params.getUuid()));
+            QueryTransformer queryTransformer = createQueryTransformer(llmService, params);
             RetrievalAugmentor retrievalAugmentor = AdiKnowledgeBaseRetrievalAugmentor.builder()
                     .queryTransformer(queryTransformer)
                     .queryRouter(queryRouter)
+                    .executor(retrievalExecutor)
+                    .retrieverTimeout(retrieverTimeout())
                     .maxInputTokens(aiModel.getMaxInputTokens())
                     .inputAdaptorMsgConsumer(inputAdaptorMsg -> {
                         log.info(inputAdaptorMsg.toString());
@@ -138,7 +166,11 @@ public class CompositeRAG {
         } else {
             IChatAssistant assistant = AiServices.builder(IChatAssistant.class)
                     .streamingChatLanguageModel(llmService.buildStreamingChatLLM(params.getLlmBuilderProperties()))
-                    .retrievalAugmentor(AdiKnowledgeBaseRetrievalAugmentor.builder().queryRouter(queryRouter).build())
+                    .retrievalAugmentor(AdiKnowledgeBaseRetrievalAugmentor.builder()
+                            .queryRouter(queryRouter)
+                            .executor(retrievalExecutor)
+                            .retrieverTimeout(retrieverTimeout())
+                            .build())
                     .build();
             if (StringUtils.isNotBlank(assistantChatParams.getSystemMessage())) {
                 tokenStream = assistant.chatWithSystem(assistantChatParams.getSystemMessage(), assistantChatParams.getUserMessage(), new ArrayList<>());
@@ -149,6 +181,25 @@ public class CompositeRAG {
         SSEEmitterHelper.registerTokenStreamCallBack(tokenStream, params, consumer);
     }
 
+    /**
+     * 查询压缩，配置了单独的压缩模型且该模型可用时使用该模型，否则使用当前对话的模型
+     */
+    private QueryTransformer createQueryTransformer(AbstractLLMService llmService, SseAskParams params) {
+        RagProperties.QueryCompression config = ragProperties.getQueryCompression();
+        ChatLanguageModel chatLanguageModel;
+        AbstractLLMService compressionService = StringUtils.isBlank(config.getModelName()) ? null : LLMContext.getAllServices().get(config.getModelName());
+        if (null != compressionService && compressionService.isEnabled()) {
+            chatLanguageModel = compressionService.buildChatLLM(null, params.getTokenUsage());
+        } else {
+            chatLanguageModel = llmService.buildChatLLM(params.getLlmBuilderProperties(), params.getTokenUsage());
+        }
+        return new AdaptiveCompressingQueryTransformer(chatLanguageModel, config.getMode(), config.getMinSelfContainedLength(), queryCompressionCache);
+    }
+
+    private Duration retrieverTimeout() {
+        return Duration.ofMillis(ragProperties.getRetrieval().getRetrieverTimeoutMillis());
+    }
+
     public EmbeddingRAG getEmbeddingRAGService() {
         return embeddingRAGService;
     }
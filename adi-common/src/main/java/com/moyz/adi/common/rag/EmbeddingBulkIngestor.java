@@ -0,0 +1,102 @@
+package com.moyz.adi.common.rag;
+
+import com.moyz.adi.common.util.JsonUtil;
+import com.pgvector.PGvector;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import static dev.langchain4j.internal.Utils.getOrDefault;
+import static dev.langchain4j.internal.ValidationUtils.*;
+
+/**
+ * 向量批量入库
+ * <br/>与EmbeddingStoreIngestor相比：按批次向量化，每批从连接池获取连接并以多行insert写入，每批完成后回调进度
+ * <br/>表结构与PgVectorEmbeddingStore创建的表保持一致(embedding_id, embedding, text, metadata)
+ */
+@Slf4j
+public class EmbeddingBulkIngestor {
+
+    private final DataSource dataSource;
+    private final String table;
+    private final EmbeddingModel embeddingModel;
+    private final int batchSize;
+
+    /**
+     * @param dataSource     连接池
+     * @param table          向量表
+     * @param embeddingModel 向量模型
+     * @param batchSize      每批处理的文本段数量
+     */
+    @Builder
+    public EmbeddingBulkIngestor(DataSource dataSource, String table, EmbeddingModel embeddingModel, Integer batchSize) {
+        this.dataSource = ensureNotNull(dataSource, "dataSource");
+        this.table = ensureNotBlank(table, "table");
+        this.embeddingModel = ensureNotNull(embeddingModel, "embeddingModel");
+        this.batchSize = ensureGreaterThanZero(getOrDefault(batchSize, 64), "batchSize");
+    }
+
+    /**
+     * 批量向量化并写入数据库
+     *
+     * @param segments         文本段
+     * @param progressConsumer 进度回调(已完成数量,总数量)，可为空
+     * @return 写入的向量数量
+     */
+    public int ingest(List<TextSegment> segments, BiConsumer<Integer, Integer> progressConsumer) {
+        int total = segments.size();
+        if (total == 0) {
+            log.info("Empty segments - no ops");
+            return 0;
+        }
+        long startTime = System.currentTimeMillis();
+        int done = 0;
+        for (int from = 0; from < total; from += batchSize) {
+            List<TextSegment> batch = segments.subList(from, Math.min(from + batchSize, total));
+            //调用向量模型期间不占用数据库连接，只在写入时从连接池获取
+            List<Embedding> embeddings = embeddingModel.embedAll(batch).content();
+            try (Connection connection = dataSource.getConnection()) {
+                insertBatch(connection, embeddings, batch);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+            done += batch.size();
+            if (null != progressConsumer) {
+                progressConsumer.accept(done, total);
+            }
+        }
+        long cost = Math.max(System.currentTimeMillis() - startTime, 1);
+        log.info("Bulk ingest finished,table:{},segments:{},cost:{}ms,throughput:{} segments/s", table, total, cost, total * 1000L / cost);
+        return done;
+    }
+
+    private void insertBatch(Connection connection, List<Embedding> embeddings, List<TextSegment> segments) throws SQLException {
+        ensureTrue(embeddings.size() == segments.size(), "embeddings size is not equal to segments size");
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (embedding_id, embedding, text, metadata) VALUES ");
+        for (int i = 0; i < segments.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int paramIndex = 1;
+            for (int i = 0; i < segments.size(); i++) {
+                TextSegment segment = segments.get(i);
+                stmt.setObject(paramIndex++, UUID.randomUUID());
+                stmt.setObject(paramIndex++, new PGvector(embeddings.get(i).vector()));
+                stmt.setString(paramIndex++, segment.text());
+                stmt.setObject(paramIndex++, JsonUtil.toJson(segment.metadata().toMap()), Types.OTHER);
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
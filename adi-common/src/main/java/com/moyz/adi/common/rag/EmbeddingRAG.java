@@ -8,6 +8,7 @@ import com.moyz.adi.common.vo.InputAdaptorMsg;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
@@ -15,15 +16,18 @@ import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2Embedding
 import dev.langchain4j.model.openai.OpenAiChatModelName;
 import dev.langchain4j.model.openai.OpenAiTokenizer;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import dev.langchain4j.store.embedding.filter.Filter;
 import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.sql.DataSource;
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 
 import static com.moyz.adi.common.cosntant.AdiConstant.*;
+import static com.moyz.adi.common.cosntant.AdiConstant.MetadataKey.TOKEN_COUNT;
 import static com.moyz.adi.common.vo.InputAdaptorMsg.TOKEN_TOO_MUCH_QUESTION;
 
 @Slf4j
@@ -33,13 +37,64 @@ public class EmbeddingRAG implements IRAGService {
 
     private EmbeddingStore<TextSegment> embeddingStore;
 
+    private DataSource dataSource;
+
+    private String table;
+
+    private int ingestBatchSize;
+
+    private EmbeddingBulkIngestor bulkIngestor;
+
+    private PgVectorIndexManager indexManager;
+
+    private QueryEmbeddingCache queryEmbeddingCache;
+
     public EmbeddingRAG(EmbeddingStore<TextSegment> embeddingStore) {
         this.embeddingStore = embeddingStore;
     }
 
+    /**
+     * @param embeddingStore  向量存储
+     * @param dataSource      连接池，用于批量入库
+     * @param table           向量表
+     * @param ingestBatchSize 批量入库时每批的文本段数量
+     */
+    public EmbeddingRAG(EmbeddingStore<TextSegment> embeddingStore, DataSource dataSource, String table, int ingestBatchSize) {
+        this.embeddingStore = embeddingStore;
+        this.dataSource = dataSource;
+        this.table = table;
+        this.ingestBatchSize = ingestBatchSize;
+    }
+
+    /**
+     * 设置向量索引管理，文本段数量较多时入库前删除索引、入库后重建
+     *
+     * @param indexManager 向量索引管理
+     */
+    public void setIndexManager(PgVectorIndexManager indexManager) {
+        this.indexManager = indexManager;
+    }
+
+    /**
+     * 设置查询向量缓存，召回时相同的问题不再重复计算向量
+     *
+     * @param queryEmbeddingCache 查询向量缓存
+     */
+    public void setQueryEmbeddingCache(QueryEmbeddingCache queryEmbeddingCache) {
+        this.queryEmbeddingCache = queryEmbeddingCache;
+    }
+
     public void init() {
         log.info("initEmbeddingModel");
         embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        if (null != dataSource) {
+            bulkIngestor = EmbeddingBulkIngestor.builder()
+                    .dataSource(dataSource)
+                    .table(table)
+                    .embeddingModel(embeddingModel)
+                    .batchSize(ingestBatchSize)
+                    .build();
+        }
     }
 
     /**
@@ -50,14 +105,39 @@ public class EmbeddingRAG implements IRAGService {
      */
     @Override
     public void ingest(Document document, int overlap, ChatLanguageModel chatLanguageModel) {
+        ingestWithProgress(document, overlap, null);
+    }
+
+    /**
+     * 对文档切块、向量化并存储到数据库，配置了批量入库时按批次处理并回调进度
+     *
+     * @param document         知识库文档
+     * @param overlap          重叠token数
+     * @param progressConsumer 进度回调(已完成的文本段数量,文本段总数)，可为空
+     * @return 写入的向量数量
+     */
+    public int ingestWithProgress(Document document, int overlap, BiConsumer<Integer, Integer> progressConsumer) {
         log.info("EmbeddingRAG ingest");
         DocumentSplitter documentSplitter = DocumentSplitters.recursive(RAG_MAX_SEGMENT_SIZE_IN_TOKENS, overlap, new OpenAiTokenizer(OpenAiChatModelName.GPT_3_5_TURBO));
-        EmbeddingStoreIngestor embeddingStoreIngestor = EmbeddingStoreIngestor.builder()
-                .documentSplitter(documentSplitter)
-                .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
-                .build();
-        embeddingStoreIngestor.ingest(document);
+        List<TextSegment> segments = documentSplitter.split(document);
+        //预先计算token数，召回后调整文档数量时无需重新分词
+        for (TextSegment segment : segments) {
+            segment.metadata().put(TOKEN_COUNT, InputAdaptor.countTokens(segment.text()));
+        }
+        if (null != bulkIngestor) {
+            if (null != indexManager && indexManager.isBulkLoadRequired(segments.size())) {
+                indexManager.bulkLoad(table, () -> bulkIngestor.ingest(segments, progressConsumer));
+            } else {
+                bulkIngestor.ingest(segments, progressConsumer);
+            }
+            return segments.size();
+        }
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        embeddingStore.addAll(embeddings, segments);
+        return segments.size();
     }
 
     /**
@@ -86,6 +166,7 @@ public class EmbeddingRAG implements IRAGService {
                 .minScore(minScore <= 0 ? RAG_MIN_SCORE : minScore)
                 .filter(filter)
                 .breakIfSearchMissed(breakIfSearchMissed)
+                .queryEmbeddingCache(queryEmbeddingCache)
                 .build();
     }
 
@@ -1,10 +1,13 @@
 package com.moyz.adi.common.rag;
 
 import com.moyz.adi.common.base.ThreadContext;
+import com.moyz.adi.common.config.RagProperties;
 import com.moyz.adi.common.cosntant.AdiConstant;
 import com.moyz.adi.common.entity.KnowledgeBaseGraphSegment;
 import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.enums.ErrorEnum;
+import com.moyz.adi.common.enums.GraphSegmentExtractStatusEnum;
+import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.QuotaHelper;
 import com.moyz.adi.common.service.KnowledgeBaseGraphSegmentService;
 import com.moyz.adi.common.service.UserDayCostService;
@@ -24,11 +27,17 @@ import dev.langchain4j.store.embedding.filter.Filter;
 import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 import static com.moyz.adi.common.cosntant.AdiConstant.RAG_MAX_SEGMENT_SIZE_IN_TOKENS;
 import static dev.langchain4j.model.openai.OpenAiModelName.GPT_3_5_TURBO;
@@ -40,8 +49,17 @@ public class GraphRAG {
 
     private KnowledgeBaseGraphSegmentService knowledgeBaseGraphSegmentService;
 
-    public GraphRAG(ApacheAgeGraphStore kbGraphStore) {
+    private final RagProperties.GraphExtract extractConfig;
+
+    /**
+     * 所有文档共用，限制同时请求LLM抽取实体及关系的数量
+     */
+    private final Executor extractExecutor;
+
+    public GraphRAG(ApacheAgeGraphStore kbGraphStore, RagProperties.GraphExtract extractConfig, Executor extractExecutor) {
         this.apacheAgeGraphStore = kbGraphStore;
+        this.extractConfig = extractConfig;
+        this.extractExecutor = extractExecutor;
     }
 
     public KnowledgeBaseGraphSegmentService getKnowledgeBaseGraphSegmentService() {
@@ -53,45 +71,10 @@ public class GraphRAG {
 
     public void ingest(GraphIngestParams graphIngestParams) {
         log.info("GraphRAG ingest");
-        User user = graphIngestParams.getUser();
         DocumentSplitter documentSplitter = DocumentSplitters.recursive(RAG_MAX_SEGMENT_SIZE_IN_TOKENS, graphIngestParams.getOverlap(), new OpenAiTokenizer(GPT_3_5_TURBO));
         GraphStoreIngestor ingestor = GraphStoreIngestor.builder()
                 .documentSplitter(documentSplitter)
-                .segmentsFunction(segments -> {
-                    List<Triple<TextSegment, String, String>> segmentIdToExtractContent = new ArrayList<>();
-                    for (TextSegment segment : segments) {
-
-                        String segmentId = UuidUtil.createShort();
-                        log.info("Save segment to graph_segment,segmentId:{}", segmentId);
-                        KnowledgeBaseGraphSegment graphSegment = new KnowledgeBaseGraphSegment();
-                        graphSegment.setUuid(segmentId);
-                        graphSegment.setRemark(segment.text());
-                        graphSegment.setKbUuid(segment.metadata().getString(AdiConstant.MetadataKey.KB_UUID));
-                        graphSegment.setKbItemUuid(segment.metadata().getString(AdiConstant.MetadataKey.KB_ITEM_UUID));
-                        graphSegment.setUserId(user.getId());
-                        getKnowledgeBaseGraphSegmentService().save(graphSegment);
-
-                        String response = "";
-                        if (StringUtils.isNotBlank(segment.text())) {
-
-                            if (!graphIngestParams.isFreeToken()) {
-                                ErrorEnum errorMsg = SpringUtil.getBean(QuotaHelper.class).checkTextQuota(user);
-                                if (null != errorMsg) {
-                                    log.warn("抽取知识图谱时发现额度已超过限制,user:{},errorInfo:{}", user.getName(), errorMsg.getInfo());
-                                    continue;
-                                }
-                            }
-
-                            log.info("请求LLM从文本中抽取实体及关系,segmentId:{}", segmentId);
-                            Response<AiMessage> aiMessageResponse = graphIngestParams.getChatLanguageModel().generate(UserMessage.from(GraphExtractPrompt.GRAPH_EXTRACTION_PROMPT_CN.replace("{input_text}", segment.text())));
-                            response = aiMessageResponse.content().text();
-
-                            SpringUtil.getBean(UserDayCostService.class).appendCostToUser(user, aiMessageResponse.tokenUsage().totalTokenCount(), graphIngestParams.isFreeToken());
-                        }
-                        segmentIdToExtractContent.add(Triple.of(segment, segmentId, response));
-                    }
-                    return segmentIdToExtractContent;
-                })
+                .segmentsExtractor((segments, graphWriter) -> extractAndStore(graphIngestParams, segments, graphWriter))
                 .identifyColumns(graphIngestParams.getIdentifyColumns())
                 .appendColumns(graphIngestParams.getAppendColumns())
                 .graphStore(apacheAgeGraphStore)
@@ -99,6 +82,180 @@ public class GraphRAG {
         ingestor.ingest(graphIngestParams.getDocument());
     }
 
+    /**
+     * 并发请求LLM抽取实体及关系，按文本段顺序分批交给graphWriter写入图数据库
+     * <br/>每个文本段的抽取结果及状态记录在adi_knowledge_base_graph_segment中，中断后重新发起时({@link GraphIngestParams#isResume()})从断点继续：
+     * 已写入图谱的文本段跳过，已抽取的文本段复用抽取结果，其余文本段重新请求LLM
+     *
+     * @param graphIngestParams 参数
+     * @param segments          文本段
+     * @param graphWriter       写入图数据库
+     */
+    private void extractAndStore(GraphIngestParams graphIngestParams, List<TextSegment> segments, Function<List<Triple<TextSegment, String, String>>, Pair<Integer, Integer>> graphWriter) {
+        List<KnowledgeBaseGraphSegment> checkpoints = loadOrCreateCheckpoints(graphIngestParams, segments);
+        int total = segments.size();
+        int storedCount = 0;
+        List<CompletableFuture<Triple<TextSegment, String, String>>> futures = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            TextSegment segment = segments.get(i);
+            KnowledgeBaseGraphSegment checkpoint = checkpoints.get(i);
+            if (checkpoint.getExtractStatus() == GraphSegmentExtractStatusEnum.STORED) {
+                storedCount++;
+                futures.add(CompletableFuture.completedFuture(null));
+            } else if (checkpoint.getExtractStatus() == GraphSegmentExtractStatusEnum.EXTRACTED) {
+                futures.add(CompletableFuture.completedFuture(Triple.of(segment, checkpoint.getUuid(), checkpoint.getLlmResponse())));
+            } else {
+                futures.add(CompletableFuture.supplyAsync(() -> extract(graphIngestParams, segment, checkpoint), extractExecutor));
+            }
+        }
+        log.info("Graph extraction start,total:{},stored:{}", total, storedCount);
+
+        int failCount = 0;
+        List<Triple<TextSegment, String, String>> batch = new ArrayList<>();
+        try {
+            for (CompletableFuture<Triple<TextSegment, String, String>> future : futures) {
+                Triple<TextSegment, String, String> extracted;
+                try {
+                    extracted = future.join();
+                } catch (CompletionException e) {
+                    log.error("Extract graph from segment error", e.getCause());
+                    failCount++;
+                    continue;
+                }
+                //已写入图谱或额度不足
+                if (null == extracted) {
+                    continue;
+                }
+                batch.add(extracted);
+                if (batch.size() >= extractConfig.getStoreBatchSize()) {
+                    storedCount += storeBatch(graphIngestParams, batch, graphWriter);
+                    reportProgress(graphIngestParams, storedCount, total);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                storedCount += storeBatch(graphIngestParams, batch, graphWriter);
+                reportProgress(graphIngestParams, storedCount, total);
+            }
+        } catch (RuntimeException e) {
+            futures.forEach(future -> future.cancel(false));
+            throw e;
+        }
+        if (failCount > 0) {
+            log.warn("Graph extraction finished with failures,total:{},stored:{},fail:{}", total, storedCount, failCount);
+            throw new BaseException(ErrorEnum.B_GRAPH_EXTRACT_FAIL);
+        }
+    }
+
+    /**
+     * 读取断点：继续中断的图谱化时，序号、内容及抽取模型都一致的文本段沿用已有记录，否则新建
+     * <br/>重新图谱化时删除该知识点已有的断点，所有文本段重新抽取
+     */
+    private List<KnowledgeBaseGraphSegment> loadOrCreateCheckpoints(GraphIngestParams graphIngestParams, List<TextSegment> segments) {
+        if (segments.isEmpty()) {
+            return new ArrayList<>();
+        }
+        User user = graphIngestParams.getUser();
+        long aiModelId = null == graphIngestParams.getAiModelId() ? 0 : graphIngestParams.getAiModelId();
+        String kbItemUuid = segments.get(0).metadata().getString(AdiConstant.MetadataKey.KB_ITEM_UUID);
+        Map<Integer, KnowledgeBaseGraphSegment> indexToExist = new HashMap<>();
+        if (StringUtils.isNotBlank(kbItemUuid)) {
+            if (graphIngestParams.isResume()) {
+                getKnowledgeBaseGraphSegmentService().listCheckpoints(kbItemUuid)
+                        .forEach(item -> indexToExist.put(item.getSegmentIndex(), item));
+            } else {
+                getKnowledgeBaseGraphSegmentService().resetCheckpoints(kbItemUuid);
+            }
+        }
+        List<KnowledgeBaseGraphSegment> result = new ArrayList<>(segments.size());
+        List<KnowledgeBaseGraphSegment> newSegments = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            TextSegment segment = segments.get(i);
+            KnowledgeBaseGraphSegment exist = indexToExist.get(i);
+            if (null != exist && segment.text().equals(exist.getRemark()) && exist.getAiModelId() == aiModelId) {
+                result.add(exist);
+                continue;
+            }
+            KnowledgeBaseGraphSegment graphSegment = new KnowledgeBaseGraphSegment();
+            graphSegment.setUuid(UuidUtil.createShort());
+            graphSegment.setRemark(segment.text());
+            graphSegment.setKbUuid(segment.metadata().getString(AdiConstant.MetadataKey.KB_UUID));
+            graphSegment.setKbItemUuid(segment.metadata().getString(AdiConstant.MetadataKey.KB_ITEM_UUID));
+            graphSegment.setSegmentIndex(i);
+            graphSegment.setExtractStatus(GraphSegmentExtractStatusEnum.WAITING);
+            graphSegment.setLlmResponse("");
+            graphSegment.setUserId(user.getId());
+            graphSegment.setAiModelId(aiModelId);
+            newSegments.add(graphSegment);
+            result.add(graphSegment);
+        }
+        log.info("Save segments to graph_segment,kbItemUuid:{},new:{},resume:{}", kbItemUuid, newSegments.size(), segments.size() - newSegments.size());
+        getKnowledgeBaseGraphSegmentService().saveBatch(newSegments);
+        return result;
+    }
+
+    /**
+     * 请求LLM从文本段中抽取实体及关系，并记录抽取结果
+     *
+     * @return 文本段,文本段id,LLM返回的内容；额度不足时返回null
+     */
+    private Triple<TextSegment, String, String> extract(GraphIngestParams graphIngestParams, TextSegment segment, KnowledgeBaseGraphSegment checkpoint) {
+        User user = graphIngestParams.getUser();
+        String segmentId = checkpoint.getUuid();
+        String response = "";
+        if (StringUtils.isNotBlank(segment.text())) {
+
+            if (!graphIngestParams.isFreeToken()) {
+                ErrorEnum errorMsg = SpringUtil.getBean(QuotaHelper.class).checkTextQuota(user);
+                if (null != errorMsg) {
+                    log.warn("抽取知识图谱时发现额度已超过限制,user:{},errorInfo:{}", user.getName(), errorMsg.getInfo());
+                    return null;
+                }
+            }
+
+            log.info("请求LLM从文本中抽取实体及关系,segmentId:{}", segmentId);
+            Response<AiMessage> aiMessageResponse = graphIngestParams.getChatLanguageModel().generate(UserMessage.from(GraphExtractPrompt.GRAPH_EXTRACTION_PROMPT_CN.replace("{input_text}", segment.text())));
+            response = aiMessageResponse.content().text();
+
+            SpringUtil.getBean(UserDayCostService.class).appendCostToUser(user, aiMessageResponse.tokenUsage().totalTokenCount(), graphIngestParams.isFreeToken());
+        }
+        getKnowledgeBaseGraphSegmentService().markExtracted(checkpoint.getId(), response);
+        return Triple.of(segment, segmentId, response);
+    }
+
+    private int storeBatch(GraphIngestParams graphIngestParams, List<Triple<TextSegment, String, String>> batch, Function<List<Triple<TextSegment, String, String>>, Pair<Integer, Integer>> graphWriter) {
+        Pair<Integer, Integer> added = graphWriter.apply(batch);
+        getKnowledgeBaseGraphSegmentService().markStored(batch.stream().map(Triple::getMiddle).toList());
+        if (null != graphIngestParams.getGraphAddedConsumer()) {
+            graphIngestParams.getGraphAddedConsumer().accept(added.getLeft(), added.getRight());
+        }
+        return batch.size();
+    }
+
+    private void reportProgress(GraphIngestParams graphIngestParams, int storedCount, int total) {
+        if (null != graphIngestParams.getProgressConsumer()) {
+            graphIngestParams.getProgressConsumer().accept(storedCount, total);
+        }
+    }
+
+    /**
+     * 统计满足metadata条件的顶点数量及边数量
+     *
+     * @param metadataCond metadata条件
+     * @return 顶点数量, 边数量
+     */
+    public Pair<Long, Long> countGraph(Map<String, String> metadataCond) {
+        Filter filter = null;
+        for (Map.Entry<String, String> entry : metadataCond.entrySet()) {
+            if (null == filter) {
+                filter = new IsEqualTo(entry.getKey(), entry.getValue());
+            } else {
+                filter = filter.and(new IsEqualTo(entry.getKey(), entry.getValue()));
+            }
+        }
+        return Pair.of(apacheAgeGraphStore.countVertices(filter), apacheAgeGraphStore.countEdges(filter));
+    }
+
     public GraphStoreContentRetriever createRetriever(ChatLanguageModel chatLanguageModel, Map<String, String> metadataCond, int maxResults, boolean breakIfSearchMissed) {
         Filter filter = null;
         for (Map.Entry<String, String> entry : metadataCond.entrySet()) {
@@ -16,16 +16,15 @@ import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static dev.langchain4j.internal.Utils.getOrDefault;
 import static dev.langchain4j.internal.ValidationUtils.ensureNotNull;
@@ -42,7 +41,12 @@ public class GraphStoreIngestor {
     private final TextSegmentTransformer textSegmentTransformer;
     private final ApacheAgeGraphStore graphStore;
     private final DocumentSplitter documentSplitter;
-    private final Function<List<TextSegment>, List<Triple<TextSegment, String, String>>> segmentsFunction;
+
+    /**
+     * 抽取实体及关系，入参为(文本段,写入图数据库的回调)<br/>
+     * 抽取结果(文本段,文本段id,LLM返回的内容)需按文本段顺序分批交给回调写入，回调返回(新增的顶点数量,新增的边数量)
+     */
+    private final BiConsumer<List<TextSegment>, Function<List<Triple<TextSegment, String, String>>, Pair<Integer, Integer>>> segmentsExtractor;
 
     /**
      * 查询时 where 语句的条件字段名
@@ -55,18 +59,25 @@ public class GraphStoreIngestor {
      */
     private final List<String> appendColumns;
 
+    private static final String KEY_SEPARATOR = "\u0001";
+
+    /**
+     * 每次批量写入的实体（关系）数量
+     */
+    private static final int STORE_BATCH_SIZE = 500;
+
     public GraphStoreIngestor(DocumentTransformer documentTransformer,
                               DocumentSplitter documentSplitter,
                               ApacheAgeGraphStore graphStore,
                               TextSegmentTransformer textSegmentTransformer,
-                              Function<List<TextSegment>, List<Triple<TextSegment, String, String>>> segmentsFunction,
+                              BiConsumer<List<TextSegment>, Function<List<Triple<TextSegment, String, String>>, Pair<Integer, Integer>>> segmentsExtractor,
                               String identifyColumns,
                               String appendColumns) {
         this.graphStore = ensureNotNull(graphStore, "graphStore");
         this.documentTransformer = documentTransformer;
         this.documentSplitter = getOrDefault(documentSplitter, GraphStoreIngestor::loadDocumentSplitter);
         this.textSegmentTransformer = textSegmentTransformer;
-        this.segmentsFunction = segmentsFunction;
+        this.segmentsExtractor = segmentsExtractor;
         this.identifyColumns = Arrays.asList(identifyColumns.split(","));
         this.appendColumns = Arrays.asList(appendColumns.split(","));
     }
@@ -113,182 +124,203 @@ public class GraphStoreIngestor {
             log.info("Text segments were transformed into {} text segments", documents.size());
         }
 
-        // TODO handle failures, parallelize
-        log.info("Starting to extract {} text segments", segments.size());
-        List<Triple<TextSegment, String, String>> segmentIdToAiResponse = segmentsFunction.apply(segments);
-        for (int i = 0; i < segmentIdToAiResponse.size(); i++) {
-            Triple<TextSegment, String, String> triple = segmentIdToAiResponse.get(i);
+        log.info("Starting to extract and store {} text segments into the graph store", segments.size());
+        segmentsExtractor.accept(segments, this::store);
+        log.info("Finished extracting and storing {} text segments into the graph store", segments.size());
+    }
+
+    /**
+     * 解析LLM抽取的实体及关系，合并后批量写入图数据库
+     * <br/>每批只需几次查询：批量查询已存在的顶点 -> 批量新增/更新顶点 -> 批量查询已存在的边 -> 批量新增/更新边
+     *
+     * @param segmentIdToAiResponse 文本段,文本段id,LLM返回的内容
+     * @return 新增的顶点数量, 新增的边数量
+     */
+    public Pair<Integer, Integer> store(List<Triple<TextSegment, String, String>> segmentIdToAiResponse) {
+        Map<Map<String, Object>, GraphBatch> identifyToBatch = new LinkedHashMap<>();
+        for (Triple<TextSegment, String, String> triple : segmentIdToAiResponse) {
             TextSegment segment = triple.getLeft();
             String textSegmentId = triple.getMiddle();
             String response = triple.getRight();
-            Map<String, Object> metadata = segment.metadata().toMap();
-            log.info("Finished extract {} text segments", segments.size());
             log.info("graph response:{}", response);
-            // TODO handle failures, parallelize
-            log.info("Starting to store {} text segments into the graph store", segments.size());
             if (StringUtils.isBlank(response)) {
-                log.warn("Response is empty");
-                log.info("Finished storing {} text segments into the graph store", segments.size());
-                return;
+                log.warn("Response is empty,textSegmentId:{}", textSegmentId);
+                continue;
             }
-
-            Filter filter = null;
+            Map<String, Object> metadata = segment.metadata().toMap();
+            Map<String, Object> identifyValues = new LinkedHashMap<>();
             for (Map.Entry<String, Object> entry : metadata.entrySet()) {
-                boolean contain = identifyColumns.contains(entry.getKey());
-                if (contain) {
-                    if (null == filter) {
-                        filter = new IsEqualTo(entry.getKey(), entry.getValue());
-                    } else {
-                        filter = filter.and(new IsEqualTo(entry.getKey(), entry.getValue()));
-                    }
+                if (identifyColumns.contains(entry.getKey())) {
+                    identifyValues.put(entry.getKey(), entry.getValue());
                 }
             }
-            if (null == filter) {
+            if (identifyValues.isEmpty()) {
                 throw new BaseException(ErrorEnum.B_GRAPH_FILTER_NOT_FOUND);
             }
+            GraphBatch batch = identifyToBatch.computeIfAbsent(identifyValues, GraphBatch::new);
+            parseResponse(batch, response, textSegmentId, metadata);
+        }
+        int addedVertexCount = 0;
+        int addedEdgeCount = 0;
+        for (GraphBatch batch : identifyToBatch.values()) {
+            //先写入所有实体再写入关系，避免关系所在的批次先执行时为尚未写入的实体创建重复的无标签顶点
+            for (int from = 0; from < batch.entities.size(); from += STORE_BATCH_SIZE) {
+                addedVertexCount += storeBatch(batch.filter, subList(batch.entities, from), List.of()).getLeft();
+            }
+            for (int from = 0; from < batch.relations.size(); from += STORE_BATCH_SIZE) {
+                Pair<Integer, Integer> added = storeBatch(batch.filter, List.of(), subList(batch.relations, from));
+                addedVertexCount += added.getLeft();
+                addedEdgeCount += added.getRight();
+            }
+        }
+        return Pair.of(addedVertexCount, addedEdgeCount);
+    }
 
-            String[] rows = StringUtils.split(response, AdiConstant.GRAPH_RECORD_DELIMITER);
-            for (String row : rows) {
-                String graphRow = row;
-                graphRow = graphRow.replaceAll("^\\(|\\)$", "");
-                String[] recordAttributes = StringUtils.split(graphRow, AdiConstant.GRAPH_TUPLE_DELIMITER);
-                if (recordAttributes.length >= 4 && (recordAttributes[0].contains("\"entity\"") || recordAttributes[0].contains("\"实体\""))) {
-                    String entityName = AdiStringUtil.clearStr(recordAttributes[1].toUpperCase());
-                    String entityType = AdiStringUtil.clearStr(recordAttributes[2].toUpperCase()).replaceAll("[^a-zA-Z0-9\\s\\u4E00-\\u9FA5]+", "");
-                    String entityDescription = AdiStringUtil.clearStr(recordAttributes[3]);
-                    log.info("entityName:{},entityType:{},entityDescription:{}", entityName, entityType, entityDescription);
-                    //实体如果不存在图数据库中，插入一个新的实体，否则追加textSegmentId、description以及metadata中指定的内容
-                    List<GraphVertex> existVertices = graphStore.searchVertices(
-                            GraphVertexSearch.builder()
-                                    .label(entityType)
-                                    .limit(1)
-                                    .names(List.of(entityName))
-                                    .metadataFilter(filter)
-                                    .build()
-                    );
-                    if (CollectionUtils.isNotEmpty(existVertices)) {
-                        GraphVertex existVertex = existVertices.get(0);
-                        String newTextSegmentId = existVertex.getTextSegmentId() + "," + textSegmentId;
-                        String newDesc = existVertex.getDescription() + "\n" + entityDescription;
-
-                        appendExistsToNewOne(existVertex.getMetadata(), metadata);
-                        GraphVertex newData = GraphVertex.builder().textSegmentId(newTextSegmentId).description(newDesc).metadata(metadata).build();
-                        graphStore.updateVertex(
-                                GraphVertexUpdateInfo.builder()
-                                        .name(entityName)
-                                        .metadataFilter(filter)
-                                        .newData(newData)
-                                        .build()
-                        );
-                    } else {
-                        graphStore.addVertex(
-                                GraphVertex.builder()
-                                        .label(entityType)
-                                        .name(entityName)
-                                        .description(entityDescription)
-                                        .metadata(metadata)
-                                        .build()
-                        );
-                    }
-                } else if (recordAttributes.length >= 4 && (recordAttributes[0].contains("\"relationship\"") || recordAttributes[0].contains("\"关系\""))) {
-                    String sourceName = AdiStringUtil.clearStr(recordAttributes[1].toUpperCase());
-                    String targetName = AdiStringUtil.clearStr(recordAttributes[2].toUpperCase());
-                    String edgeDescription = AdiStringUtil.clearStr(recordAttributes[3]);
-                    log.info("Relationship sourceName:{},targetName:{},edgeDescription:{}", sourceName, targetName, edgeDescription);
-                    String chunkId = AdiStringUtil.clearStr(textSegmentId);
-
-                    double weight = 1.0;
-                    if (recordAttributes.length > 4) {
-                        String tailRecord = recordAttributes[recordAttributes.length - 1];
-                        weight = NumberUtils.toDouble(tailRecord, 1.0);
-                    }
-
-                    //Source vertex
-                    GraphVertex source = graphStore.getVertex(
-                            GraphVertexSearch.builder()
-                                    .names(List.of(sourceName))
-                                    .metadataFilter(filter)
-                                    .build()
-                    );
-                    if (null == source) {
-                        graphStore.addVertex(
-                                GraphVertex.builder()
-                                        .name(sourceName)
-                                        .metadata(metadata)
-                                        .build()
-                        );
-                    }
-                    //Target vertex
-                    GraphVertex target = graphStore.getVertex(
-                            GraphVertexSearch.builder()
-                                    .names(List.of(targetName))
-                                    .metadataFilter(filter)
-                                    .build()
-                    );
-                    if (null == target) {
-                        graphStore.addVertex(
-                                GraphVertex.builder()
-                                        .name(targetName)
-                                        .metadata(metadata)
-                                        .build()
-                        );
-                    }
-                    //Edge
-                    GraphEdgeSearch search = new GraphEdgeSearch();
-                    search.setSource(GraphSearchCondition.builder()
-                            .names(List.of(sourceName))
-                            .metadataFilter(filter)
-                            .build());
-                    search.setTarget(GraphSearchCondition.builder()
-                            .names(List.of(targetName))
-                            .metadataFilter(filter)
+    private void parseResponse(GraphBatch batch, String response, String textSegmentId, Map<String, Object> metadata) {
+        String[] rows = StringUtils.split(response, AdiConstant.GRAPH_RECORD_DELIMITER);
+        for (String row : rows) {
+            String graphRow = row;
+            graphRow = graphRow.replaceAll("^\\(|\\)$", "");
+            String[] recordAttributes = StringUtils.split(graphRow, AdiConstant.GRAPH_TUPLE_DELIMITER);
+            if (recordAttributes.length >= 4 && (recordAttributes[0].contains("\"entity\"") || recordAttributes[0].contains("\"实体\""))) {
+                String entityName = AdiStringUtil.clearStr(recordAttributes[1].toUpperCase());
+                String entityType = AdiStringUtil.clearStr(recordAttributes[2].toUpperCase()).replaceAll("[^a-zA-Z0-9\\s\\u4E00-\\u9FA5]+", "");
+                String entityDescription = AdiStringUtil.clearStr(recordAttributes[3]);
+                log.info("entityName:{},entityType:{},entityDescription:{}", entityName, entityType, entityDescription);
+                GraphItem entity = batch.entities.computeIfAbsent(entityType + KEY_SEPARATOR + entityName, key -> new GraphItem(entityType, entityName));
+                entity.append(textSegmentId, entityDescription, 0, metadata);
+            } else if (recordAttributes.length >= 4 && (recordAttributes[0].contains("\"relationship\"") || recordAttributes[0].contains("\"关系\""))) {
+                String sourceName = AdiStringUtil.clearStr(recordAttributes[1].toUpperCase());
+                String targetName = AdiStringUtil.clearStr(recordAttributes[2].toUpperCase());
+                String edgeDescription = AdiStringUtil.clearStr(recordAttributes[3]);
+                log.info("Relationship sourceName:{},targetName:{},edgeDescription:{}", sourceName, targetName, edgeDescription);
+                String chunkId = AdiStringUtil.clearStr(textSegmentId);
+
+                double weight = 1.0;
+                if (recordAttributes.length > 4) {
+                    String tailRecord = recordAttributes[recordAttributes.length - 1];
+                    weight = NumberUtils.toDouble(tailRecord, 1.0);
+                }
+                GraphItem relation = batch.relations.computeIfAbsent(sourceName + KEY_SEPARATOR + targetName, key -> new GraphItem(sourceName, targetName));
+                relation.append(chunkId, edgeDescription, weight, metadata);
+            }
+        }
+    }
+
+    /**
+     * 实体如果不存在图数据库中，插入一个新的实体，否则追加textSegmentId、description以及metadata中指定的内容；关系同理<br/>
+     * 关系是有方向的，按(source, target)判断是否已存在，已有A->B时新的B->A关系作为另一条边插入，不会合并到A->B
+     */
+    private Pair<Integer, Integer> storeBatch(Filter filter, List<GraphItem> entities, List<GraphItem> relations) {
+        Set<String> names = new LinkedHashSet<>();
+        entities.forEach(item -> names.add(item.secondKey));
+        relations.forEach(item -> {
+            names.add(item.firstKey);
+            names.add(item.secondKey);
+        });
+
+        //name -> vertices
+        Map<String, List<GraphVertex>> nameToVertices = new HashMap<>();
+        graphStore.searchVerticesByNames(names, filter)
+                .forEach(vertex -> nameToVertices.computeIfAbsent(vertex.getName(), key -> new ArrayList<>()).add(vertex));
+
+        //Entities
+        List<GraphVertex> verticesToAdd = new ArrayList<>();
+        List<GraphVertex> verticesToUpdate = new ArrayList<>();
+        for (GraphItem entity : entities) {
+            GraphVertex existVertex = nameToVertices.getOrDefault(entity.secondKey, List.of()).stream()
+                    .filter(vertex -> entity.firstKey.equalsIgnoreCase(vertex.getLabel()))
+                    .findFirst()
+                    .orElse(null);
+            if (null != existVertex) {
+                appendExistsToNewOne(existVertex.getMetadata(), entity.metadata);
+                verticesToUpdate.add(GraphVertex.builder()
+                        .id(existVertex.getId())
+                        .label(existVertex.getLabel())
+                        .name(existVertex.getName())
+                        .textSegmentId(existVertex.getTextSegmentId() + "," + entity.textSegmentIds())
+                        .description(existVertex.getDescription() + "\n" + entity.descriptions())
+                        .metadata(entity.metadata)
+                        .build());
+            } else {
+                verticesToAdd.add(GraphVertex.builder()
+                        .label(entity.firstKey)
+                        .name(entity.secondKey)
+                        .textSegmentId(entity.textSegmentIds())
+                        .description(entity.descriptions())
+                        .metadata(entity.metadata)
+                        .build());
+            }
+        }
+        //关系两端的顶点不存在时新增一个无标签的顶点
+        Set<String> relationVertexNamesToAdd = new LinkedHashSet<>();
+        Set<String> entityNamesToAdd = verticesToAdd.stream().map(GraphVertex::getName).collect(Collectors.toSet());
+        for (GraphItem relation : relations) {
+            for (String name : List.of(relation.firstKey, relation.secondKey)) {
+                if (!nameToVertices.containsKey(name) && !entityNamesToAdd.contains(name) && relationVertexNamesToAdd.add(name)) {
+                    verticesToAdd.add(GraphVertex.builder()
+                            .name(name)
+                            .metadata(relation.metadata)
                             .build());
-                    Triple<GraphVertex, GraphEdge, GraphVertex> graphEdgeWithVertices = graphStore.getEdge(search);
-                    if (null != graphEdgeWithVertices) {
-                        GraphEdge existGraphEdge = graphEdgeWithVertices.getMiddle();
-                        weight += existGraphEdge.getWeight();
-                        GraphEdgeEditInfo graphEdgeEditInfo = new GraphEdgeEditInfo();
-                        graphEdgeEditInfo.setSourceFilter(GraphSearchCondition.builder()
-                                .names(List.of(sourceName))
-                                .metadataFilter(filter)
-                                .build());
-                        graphEdgeEditInfo.setTargetFilter(GraphSearchCondition.builder()
-                                .names(List.of(targetName))
-                                .metadataFilter(filter)
-                                .build());
-                        graphEdgeEditInfo.setEdge(GraphEdge.builder()
-                                .textSegmentId(existGraphEdge.getTextSegmentId() + "," + chunkId)
-                                .description(existGraphEdge.getDescription() + "\n" + edgeDescription)
-                                .weight(weight)
-                                .build());
-                        graphStore.updateEdge(graphEdgeEditInfo);
-
-                        appendExistsToNewOne(existGraphEdge.getMetadata(), metadata);
-                    } else {
-                        GraphEdgeAddInfo addInfo = new GraphEdgeAddInfo();
-                        addInfo.setEdge(GraphEdge.builder()
-                                .sourceName(sourceName)
-                                .targetName(targetName)
-                                .weight(weight)
-                                .metadata(metadata)
-                                .textSegmentId(chunkId)
-                                .description(edgeDescription)
-                                .build());
-                        addInfo.setSourceFilter(GraphSearchCondition.builder()
-                                .names(List.of(sourceName))
-                                .metadataFilter(filter)
-                                .build());
-                        addInfo.setTargetFilter(GraphSearchCondition.builder()
-                                .names(List.of(targetName))
-                                .metadataFilter(filter)
-                                .build());
-                        graphStore.addEdge(addInfo);
-                    }
                 }
             }
         }
+        graphStore.updateVertices(verticesToUpdate);
+        if (!verticesToAdd.isEmpty()) {
+            graphStore.addVertices(verticesToAdd)
+                    .forEach(vertex -> nameToVertices.computeIfAbsent(vertex.getName(), key -> new ArrayList<>()).add(vertex));
+        }
+        if (relations.isEmpty()) {
+            return Pair.of(verticesToAdd.size(), 0);
+        }
 
-        log.info("Finished storing {} text segments into the graph store", segments.size());
+        //Edges
+        Map<String, Triple<GraphVertex, GraphEdge, GraphVertex>> existEdges = new HashMap<>();
+        for (Triple<GraphVertex, GraphEdge, GraphVertex> triple : graphStore.searchEdgesByVertexNames(names, filter)) {
+            existEdges.putIfAbsent(triple.getLeft().getName() + KEY_SEPARATOR + triple.getRight().getName(), triple);
+        }
+        List<GraphEdge> edgesToAdd = new ArrayList<>();
+        List<GraphEdge> edgesToUpdate = new ArrayList<>();
+        for (GraphItem relation : relations) {
+            Triple<GraphVertex, GraphEdge, GraphVertex> existTriple = existEdges.get(relation.firstKey + KEY_SEPARATOR + relation.secondKey);
+            if (null != existTriple) {
+                GraphEdge existGraphEdge = existTriple.getMiddle();
+                appendExistsToNewOne(existGraphEdge.getMetadata(), relation.metadata);
+                edgesToUpdate.add(GraphEdge.builder()
+                        .id(existGraphEdge.getId())
+                        .sourceName(existTriple.getLeft().getName())
+                        .targetName(existTriple.getRight().getName())
+                        .textSegmentId(existGraphEdge.getTextSegmentId() + "," + relation.textSegmentIds())
+                        .description(existGraphEdge.getDescription() + "\n" + relation.descriptions())
+                        .weight(relation.weight + existGraphEdge.getWeight())
+                        .metadata(relation.metadata)
+                        .build());
+            } else {
+                GraphVertex source = nameToVertices.get(relation.firstKey).get(0);
+                GraphVertex target = nameToVertices.get(relation.secondKey).get(0);
+                edgesToAdd.add(GraphEdge.builder()
+                        .startId(source.getId())
+                        .endId(target.getId())
+                        .sourceName(relation.firstKey)
+                        .targetName(relation.secondKey)
+                        .weight(relation.weight)
+                        .metadata(relation.metadata)
+                        .textSegmentId(relation.textSegmentIds())
+                        .description(relation.descriptions())
+                        .build());
+            }
+        }
+        graphStore.updateEdges(edgesToUpdate);
+        graphStore.addEdges(edgesToAdd);
+        return Pair.of(verticesToAdd.size(), edgesToAdd.size());
+    }
+
+    private static List<GraphItem> subList(Map<String, GraphItem> items, int from) {
+        List<GraphItem> list = new ArrayList<>(items.values());
+        if (from >= list.size()) {
+            return List.of();
+        }
+        return list.subList(from, Math.min(from + STORE_BATCH_SIZE, list.size()));
     }
 
     private void appendExistsToNewOne(Map<String, Object> existMetadata, Map<String, Object> newMetadata) {
@@ -299,4 +331,57 @@ public class GraphStoreIngestor {
             }
         }
     }
+
+    /**
+     * 同一批次(相同的唯一标识字段值)中需要写入的实体及关系
+     */
+    private static class GraphBatch {
+        private final Filter filter;
+        private final Map<String, GraphItem> entities = new LinkedHashMap<>();
+        private final Map<String, GraphItem> relations = new LinkedHashMap<>();
+
+        GraphBatch(Map<String, Object> identifyValues) {
+            Filter result = null;
+            for (Map.Entry<String, Object> entry : identifyValues.entrySet()) {
+                if (null == result) {
+                    result = new IsEqualTo(entry.getKey(), entry.getValue());
+                } else {
+                    result = result.and(new IsEqualTo(entry.getKey(), entry.getValue()));
+                }
+            }
+            this.filter = result;
+        }
+    }
+
+    /**
+     * 合并后的实体(firstKey:类型,secondKey:名称)或关系(firstKey:源实体名称,secondKey:目标实体名称)
+     */
+    private static class GraphItem {
+        private final String firstKey;
+        private final String secondKey;
+        private final List<String> textSegmentIds = new ArrayList<>();
+        private final List<String> descriptions = new ArrayList<>();
+        private double weight;
+        private Map<String, Object> metadata;
+
+        GraphItem(String firstKey, String secondKey) {
+            this.firstKey = firstKey;
+            this.secondKey = secondKey;
+        }
+
+        void append(String textSegmentId, String description, double weight, Map<String, Object> metadata) {
+            this.textSegmentIds.add(textSegmentId);
+            this.descriptions.add(description);
+            this.weight += weight;
+            this.metadata = new HashMap<>(metadata);
+        }
+
+        String textSegmentIds() {
+            return String.join(",", textSegmentIds);
+        }
+
+        String descriptions() {
+            return String.join("\n", descriptions);
+        }
+    }
 }
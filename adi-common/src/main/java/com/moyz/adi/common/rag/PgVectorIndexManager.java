@@ -0,0 +1,272 @@
+package com.moyz.adi.common.rag;
+
+import com.moyz.adi.common.config.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * pgvector向量索引管理
+ * <ul>
+ *     <li>hnsw: 按配置的m、ef_construction创建索引</li>
+ *     <li>ivfflat: 数据量足够时才创建索引，并根据数据量定时重新计算lists，偏差较大时并发重建</li>
+ *     <li>大批量导入: 删除索引 -> 导入 -> 并发重建索引</li>
+ *     <li>建索引在后台线程中执行，不阻塞应用启动及导入</li>
+ * </ul>
+ * 查询参数(hnsw.ef_search、ivfflat.probes)通过{@link #searchSessionSql(RagProperties.VectorIndex)}在搜索连接池的连接初始化时设置
+ */
+@Slf4j
+public class PgVectorIndexManager {
+
+    public static final String INDEX_TYPE_HNSW = "hnsw";
+    public static final String INDEX_TYPE_IVFFLAT = "ivfflat";
+
+    private static final Pattern IVFFLAT_LISTS_PATTERN = Pattern.compile("lists\\s*=\\s*'?(\\d+)'?");
+
+    private final DataSource dataSource;
+
+    private final RagProperties.VectorIndex config;
+
+    private final List<String> tables;
+
+    /**
+     * 执行建索引等耗时的DDL，避免阻塞应用启动及导入线程
+     */
+    private final AsyncTaskExecutor indexExecutor;
+
+    /**
+     * 正在进行大批量导入的数量，key:表名
+     */
+    private final Map<String, AtomicInteger> bulkLoading = new ConcurrentHashMap<>();
+
+    public PgVectorIndexManager(DataSource dataSource, RagProperties.VectorIndex config, List<String> tables, AsyncTaskExecutor indexExecutor) {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.tables = tables;
+        this.indexExecutor = indexExecutor;
+    }
+
+    /**
+     * 在后台检查并创建索引，大表建索引耗时较长，不阻塞应用启动
+     */
+    public void init() {
+        for (String table : tables) {
+            ensureIndexAsync(table);
+        }
+    }
+
+    private void ensureIndexAsync(String table) {
+        indexExecutor.execute(() -> {
+            if (isBulkLoading(table)) {
+                return;
+            }
+            try {
+                ensureIndex(table);
+            } catch (Exception e) {
+                log.error("ensure vector index error,table:{}", table, e);
+            }
+        });
+    }
+
+    /**
+     * 搜索会话的初始化语句
+     *
+     * @param config 向量索引配置
+     * @return sql
+     */
+    public static String searchSessionSql(RagProperties.VectorIndex config) {
+        String sql = "SET hnsw.ef_search = " + config.getHnswEfSearch() + "; SET ivfflat.probes = " + config.getIvfflatProbes();
+        if (StringUtils.isNotBlank(config.getIterativeScan())) {
+            sql += "; SET hnsw.iterative_scan = " + config.getIterativeScan();
+            //ivfflat不支持strict_order
+            if (!"strict_order".equals(config.getIterativeScan())) {
+                sql += "; SET ivfflat.iterative_scan = " + config.getIterativeScan();
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * 按配置创建索引(如不存在)
+     *
+     * @param table 向量表
+     */
+    public void ensureIndex(String table) throws SQLException {
+        if (!INDEX_TYPE_HNSW.equals(config.getType()) && !INDEX_TYPE_IVFFLAT.equals(config.getType())) {
+            return;
+        }
+        String indexDef = getIndexDef(table);
+        if (null != indexDef) {
+            if (!indexDef.contains("USING " + config.getType())) {
+                log.info("vector index type changed,rebuild index,table:{},current:{}", table, indexDef);
+                rebuildIndex(table);
+            }
+            return;
+        }
+        if (INDEX_TYPE_IVFFLAT.equals(config.getType())) {
+            long rows = estimateRows(table);
+            if (rows < config.getIvfflatMinRows()) {
+                log.info("too few rows to build ivfflat index,table:{},rows:{}", table, rows);
+                return;
+            }
+        }
+        createIndex(table, indexName(table));
+    }
+
+    /**
+     * 定时检查ivfflat索引: 数据量达到阈值时创建，lists与推荐值偏差超过一倍时并发重建
+     */
+    @Scheduled(initialDelay = 30 * 60 * 1000, fixedDelay = 6 * 60 * 60 * 1000)
+    public void tuneIvfflatLists() {
+        if (!INDEX_TYPE_IVFFLAT.equals(config.getType()) || !config.isIvfflatAutoTune()) {
+            return;
+        }
+        for (String table : tables) {
+            if (isBulkLoading(table)) {
+                continue;
+            }
+            try {
+                String indexDef = getIndexDef(table);
+                if (null == indexDef) {
+                    ensureIndex(table);
+                    continue;
+                }
+                Matcher matcher = IVFFLAT_LISTS_PATTERN.matcher(indexDef);
+                if (!matcher.find()) {
+                    continue;
+                }
+                int currentLists = Integer.parseInt(matcher.group(1));
+                int recommendLists = recommendIvfflatLists(estimateRows(table));
+                if (recommendLists > currentLists * 2 || recommendLists * 2 < currentLists) {
+                    log.info("retune ivfflat lists,table:{},current:{},recommend:{}", table, currentLists, recommendLists);
+                    rebuildIndex(table);
+                }
+            } catch (Exception e) {
+                log.error("tune ivfflat index error,table:{}", table, e);
+            }
+        }
+    }
+
+    /**
+     * 大批量导入：第一个导入开始时删除索引，最后一个导入结束后并发重建索引
+     *
+     * @param table  向量表
+     * @param loader 导入逻辑
+     */
+    public void bulkLoad(String table, Runnable loader) {
+        AtomicInteger counter = bulkLoading.computeIfAbsent(table, key -> new AtomicInteger());
+        //由原子计数决定是否删除/重建索引，DDL不在锁内执行，其他导入线程无需等待
+        if (counter.getAndIncrement() == 0) {
+            executeQuietly("DROP INDEX CONCURRENTLY IF EXISTS " + indexName(table));
+        }
+        try {
+            loader.run();
+        } finally {
+            //重建时若又有新的导入开始则跳过，由最后结束的导入重建
+            if (counter.decrementAndGet() == 0) {
+                ensureIndexAsync(table);
+            }
+        }
+    }
+
+    public boolean isBulkLoadRequired(int segmentCount) {
+        return config.getRebuildOnBulkLoadThreshold() > 0 && segmentCount >= config.getRebuildOnBulkLoadThreshold();
+    }
+
+    /**
+     * 并发重建索引，重建期间旧索引仍可使用
+     *
+     * @param table 向量表
+     */
+    public void rebuildIndex(String table) throws SQLException {
+        String indexName = indexName(table);
+        String tmpIndexName = indexName + "_tmp";
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + tmpIndexName);
+            stmt.executeUpdate(createIndexSql(table, tmpIndexName));
+            stmt.executeUpdate("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+            stmt.executeUpdate("ALTER INDEX " + tmpIndexName + " RENAME TO " + indexName);
+        }
+    }
+
+    private void createIndex(String table, String indexName) throws SQLException {
+        log.info("create vector index,table:{},type:{}", table, config.getType());
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(createIndexSql(table, indexName));
+        }
+    }
+
+    private String createIndexSql(String table, String indexName) throws SQLException {
+        if (INDEX_TYPE_HNSW.equals(config.getType())) {
+            return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s USING hnsw (embedding vector_cosine_ops) WITH (m = %d, ef_construction = %d)",
+                    indexName, table, config.getHnswM(), config.getHnswEfConstruction());
+        }
+        return String.format("CREATE INDEX CONCURRENTLY IF NOT EXISTS %s ON %s USING ivfflat (embedding vector_cosine_ops) WITH (lists = %d)",
+                indexName, table, recommendIvfflatLists(estimateRows(table)));
+    }
+
+    /**
+     * pgvector推荐值: 一百万行以内为 rows / 1000，超过一百万行为 sqrt(rows)
+     */
+    private int recommendIvfflatLists(long rows) {
+        if (rows <= 1_000_000) {
+            return (int) Math.max(rows / 1000, 1);
+        }
+        return (int) Math.sqrt(rows);
+    }
+
+    private String getIndexDef(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("select indexdef from pg_indexes where tablename = ? and indexname = ?")) {
+            stmt.setString(1, table);
+            stmt.setString(2, indexName(table));
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * 使用统计信息估算行数，避免count(*)全表扫描
+     */
+    private long estimateRows(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("select greatest(reltuples, 0)::bigint from pg_class where oid = ?::regclass")) {
+            stmt.setString(1, table);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+    }
+
+    private boolean isBulkLoading(String table) {
+        AtomicInteger counter = bulkLoading.get(table);
+        return null != counter && counter.get() > 0;
+    }
+
+    private void executeQuietly(String sql) {
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(sql);
+        } catch (SQLException e) {
+            log.error("execute sql error,sql:{}", sql, e);
+        }
+    }
+
+    private String indexName(String table) {
+        return table + "_embedding_idx";
+    }
+}
@@ -0,0 +1,69 @@
+package com.moyz.adi.common.rag;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 查询文本 -> 向量 的缓存，知识库及搜索的召回共用
+ * <br/>按向量及文本的大小限制缓存占用的内存
+ */
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private final Cache<String, Embedding> cache;
+
+    /**
+     * @param maxSizeInMb  最大占用内存(估算值)，单位MB
+     * @param ttlInMinutes 有效期，单位分钟
+     */
+    public QueryEmbeddingCache(int maxSizeInMb, int ttlInMinutes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeInMb * 1024L * 1024L)
+                .weigher((String key, Embedding value) -> key.length() * 2 + value.dimension() * 4)
+                .expireAfterWrite(ttlInMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 获取查询文本的向量，缓存中没有时调用向量模型计算
+     *
+     * @param embeddingModel 向量模型
+     * @param text           查询文本
+     * @return 向量
+     */
+    public Embedding embed(EmbeddingModel embeddingModel, String text) {
+        String key = embeddingModel.getClass().getSimpleName() + ":" + normalize(text);
+        try {
+            return cache.get(key, () -> embeddingModel.embed(text).content());
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Scheduled(initialDelay = 10 * 60 * 1000, fixedDelay = 10 * 60 * 1000)
+    public void logStats() {
+        CacheStats stats = cache.stats();
+        log.info("Query embedding cache,size:{},hitCount:{},missCount:{},hitRate:{},evictionCount:{}",
+                cache.size(), stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+    }
+
+    /**
+     * 去除首尾空白、合并连续空白并转为小写（all-MiniLM-L6-v2不区分大小写）
+     */
+    private static String normalize(String text) {
+        return text.strip().replaceAll("\\s+", " ").toLowerCase();
+    }
+}
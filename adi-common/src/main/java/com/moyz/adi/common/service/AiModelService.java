@@ -9,6 +9,7 @@ import com.moyz.adi.common.dto.AiModelSearchReq;
 import com.moyz.adi.common.entity.AiModel;
 import com.moyz.adi.common.enums.ErrorEnum;
 import com.moyz.adi.common.exception.BaseException;
+import com.moyz.adi.common.helper.ConfigChangeHelper;
 import com.moyz.adi.common.mapper.AiModelMapper;
 import com.moyz.adi.common.util.MPPageUtil;
 import jakarta.annotation.Resource;
@@ -18,6 +19,7 @@ import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -26,11 +28,38 @@ public class AiModelService extends ServiceImpl<AiModelMapper, AiModel> {
     @Resource
     private AiModelSettingService aiModelSettingService;
 
+    @Resource
+    private ConfigChangeHelper configChangeHelper;
+
     public void init() {
         List<AiModel> aiModels = ChainWrappers.lambdaQueryChain(baseMapper).eq(AiModel::getIsDeleted, false).list();
         aiModelSettingService.init(aiModels);
     }
 
+    /**
+     * 重新加载模型
+     *
+     * @param ids 修改的模型id，为null时与数据库中的全部模型比较，只重新加载有变化的模型
+     */
+    public void reload(Set<String> ids) {
+        if (null == ids) {
+            aiModelSettingService.sync(ChainWrappers.lambdaQueryChain(baseMapper).eq(AiModel::getIsDeleted, false).list());
+            return;
+        }
+        for (String id : ids) {
+            Long modelId = Long.parseLong(id);
+            aiModelSettingService.reload(modelId, baseMapper.selectById(modelId));
+        }
+    }
+
+    /**
+     * 本实例立即生效，其他实例收到通知后重新加载该模型
+     */
+    private void reloadAndPublish(Long id) {
+        aiModelSettingService.reload(id, baseMapper.selectById(id));
+        configChangeHelper.publish(ConfigChangeHelper.TYPE_AI_MODEL, List.of(id));
+    }
+
     public List<AiModel> listBy(String platform, String type) {
         return ChainWrappers.lambdaQueryChain(baseMapper)
                 .eq(AiModel::getPlatform, platform)
@@ -92,6 +121,8 @@ public class AiModelService extends ServiceImpl<AiModelMapper, AiModel> {
         model.setId(id);
         model.setIsEnable(false);
         baseMapper.updateById(model);
+
+        reloadAndPublish(id);
     }
 
     public void enable(Long id) {
@@ -99,6 +130,8 @@ public class AiModelService extends ServiceImpl<AiModelMapper, AiModel> {
         model.setId(id);
         model.setIsEnable(true);
         baseMapper.updateById(model);
+
+        reloadAndPublish(id);
     }
 
     public List<AiModelDto> listEnable() {
@@ -125,31 +158,29 @@ public class AiModelService extends ServiceImpl<AiModelMapper, AiModel> {
         AiModelDto result = new AiModelDto();
         BeanUtils.copyProperties(aiModel, result);
 
-        aiModelSettingService.addOrUpdate(aiModel);
+        reloadAndPublish(aiModel.getId());
 
         return result;
     }
 
     public void edit(AiModelDto aiModelDto) {
-        AiModel oldAiModel = getByIdOrThrow(aiModelDto.getId());
+        getByIdOrThrow(aiModelDto.getId());
 
         AiModel aiModel = new AiModel();
         BeanUtils.copyProperties(aiModelDto, aiModel, "createTime", "updateTime");
         baseMapper.updateById(aiModel);
 
-        AiModel updatedOne = getByIdOrThrow(aiModelDto.getId());
-        aiModelSettingService.delete(oldAiModel);
-        aiModelSettingService.addOrUpdate(updatedOne);
+        reloadAndPublish(aiModelDto.getId());
     }
 
     public void softDelete(Long id) {
-        AiModel existModel = getByIdOrThrow(id);
+        getByIdOrThrow(id);
 
         AiModel model = new AiModel();
         model.setId(id);
         model.setIsDeleted(true);
         baseMapper.updateById(model);
 
-        aiModelSettingService.delete(existModel);
+        reloadAndPublish(id);
     }
 }
@@ -8,20 +8,21 @@ import com.moyz.adi.common.interfaces.AbstractImageModelService;
 import com.moyz.adi.common.interfaces.AbstractLLMService;
 import com.moyz.adi.common.searchengine.GoogleSearchEngineService;
 import com.moyz.adi.common.searchengine.SearchEngineServiceContext;
+import com.moyz.adi.common.util.LocalCache;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
-import static com.moyz.adi.common.util.LocalCache.MODEL_ID_TO_OBJ;
-
 @Slf4j
 @Service
 public class AiModelSettingService {
@@ -39,20 +40,20 @@ public class AiModelSettingService {
 
     private List<AiModel> all = new ArrayList<>();
 
+    /**
+     * key: 平台, value: 创建该平台模型服务的方法
+     */
+    private final Map<String, Function<AiModel, AbstractLLMService<?>>> llmServiceCreators = new HashMap<>();
+    private final Map<String, Function<AiModel, AbstractImageModelService<?>>> imageModelServiceCreators = new HashMap<>();
+
     /**
      * 模型及其配置初始化
      *
      * @param allModels
      */
-    public void init(List<AiModel> allModels) {
-        this.all = allModels;
-        for (AiModel model : all) {
-            if (Boolean.TRUE.equals(model.getIsEnable())) {
-                MODEL_ID_TO_OBJ.put(model.getId(), model);
-            } else {
-                MODEL_ID_TO_OBJ.remove(model.getId());
-            }
-        }
+    public synchronized void init(List<AiModel> allModels) {
+        this.all = new ArrayList<>(allModels);
+        refreshModelSnapshot();
         if (proxyEnable) {
             proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyHttpPort));
         } else {
@@ -98,19 +99,22 @@ public class AiModelSettingService {
         SearchEngineServiceContext.addWebSearcher(AdiConstant.SearchEngineName.GOOGLE, new GoogleSearchEngineService(proxy));
     }
 
-    private void initLLMService(String platform, Function<AiModel, AbstractLLMService> function) {
+    private void initLLMService(String platform, Function<AiModel, AbstractLLMService<?>> function) {
+        llmServiceCreators.put(platform, function);
         List<AiModel> models = all.stream().filter(item -> item.getType().equals(AdiConstant.ModelType.TEXT) && item.getPlatform().equals(platform)).toList();
         if (CollectionUtils.isEmpty(models)) {
             log.warn("{} service is disabled", platform);
         }
-        LLMContext.clearByPlatform(platform);
+        List<AbstractLLMService<?>> services = new ArrayList<>();
         for (AiModel model : models) {
             log.info("add llm model,model:{}", model);
-            LLMContext.addLLMService(function.apply(model));
+            services.add(function.apply(model));
         }
+        LLMContext.replaceByPlatform(platform, services);
     }
 
-    private void initImageModelService(String platform, Function<AiModel, AbstractImageModelService> function) {
+    private void initImageModelService(String platform, Function<AiModel, AbstractImageModelService<?>> function) {
+        imageModelServiceCreators.put(platform, function);
         List<AiModel> models = all.stream().filter(item -> item.getType().equals(AdiConstant.ModelType.IMAGE) && item.getPlatform().equals(platform)).toList();
         if (CollectionUtils.isEmpty(models)) {
             log.warn("{} service is disabled", platform);
@@ -123,24 +127,103 @@ public class AiModelSettingService {
 
     }
 
-    public void delete(AiModel aiModel) {
+    /**
+     * 与数据库中的全部模型比较，只重新创建有变化的模型服务，未变化的模型服务(及其已创建的客户端)保持不变
+     *
+     * @param allModels 数据库中未删除的全部模型
+     */
+    public synchronized void sync(List<AiModel> allModels) {
+        Map<Long, AiModel> idToLatest = new HashMap<>();
+        allModels.forEach(item -> idToLatest.put(item.getId(), item));
+        for (AiModel exist : new ArrayList<>(all)) {
+            if (!idToLatest.containsKey(exist.getId())) {
+                delete(exist);
+            }
+        }
+        for (AiModel latest : allModels) {
+            AiModel exist = all.stream().filter(item -> item.getId().equals(latest.getId())).findFirst().orElse(null);
+            if (!latest.equals(exist)) {
+                addOrUpdate(latest);
+            }
+        }
+    }
+
+    /**
+     * 重新加载指定的模型
+     *
+     * @param modelId 模型id
+     * @param latest  数据库中的最新数据，为null或已删除时移除该模型
+     */
+    public synchronized void reload(Long modelId, AiModel latest) {
+        if (null == latest || Boolean.TRUE.equals(latest.getIsDeleted())) {
+            all.stream().filter(item -> item.getId().equals(modelId)).findFirst().ifPresent(this::delete);
+            return;
+        }
+        addOrUpdate(latest);
+    }
+
+    public synchronized void delete(AiModel aiModel) {
         LLMContext.remove(aiModel.getName());
         ImageModelContext.remove(aiModel.getName());
-        MODEL_ID_TO_OBJ.remove(aiModel.getId());
+        all.removeIf(item -> item.getId().equals(aiModel.getId()));
+        refreshModelSnapshot();
     }
 
-    public void addOrUpdate(AiModel aiModel) {
-        AiModel existOne = all.stream().filter(item -> item.getId().equals(aiModel.getId())).findFirst().orElse(null);
-        if (null == existOne) {
+    /**
+     * 新增或更新模型，只重新创建该模型的服务，同平台的其他模型服务不受影响
+     *
+     * @param aiModel 模型
+     */
+    public synchronized void addOrUpdate(AiModel aiModel) {
+        int index = -1;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).getId().equals(aiModel.getId())) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
             all.add(aiModel);
         } else {
-            BeanUtils.copyProperties(aiModel, existOne);
+            AiModel existOne = all.set(index, aiModel);
+            //名称变化时按名称注册的旧服务需要移除，类型或平台变化时旧服务可能在另一个上下文中
+            if (!existOne.getName().equals(aiModel.getName())
+                    || !existOne.getType().equals(aiModel.getType())
+                    || !existOne.getPlatform().equals(aiModel.getPlatform())) {
+                LLMContext.remove(existOne.getName());
+                ImageModelContext.remove(existOne.getName());
+            }
         }
-        if (AdiConstant.ModelType.TEXT.equalsIgnoreCase(aiModel.getType())) {
-            initLLMServiceList();
-        } else {
-            initImageModelServiceList();
+        if (AdiConstant.ModelType.TEXT.equals(aiModel.getType())) {
+            Function<AiModel, AbstractLLMService<?>> creator = llmServiceCreators.get(aiModel.getPlatform());
+            if (null == creator) {
+                log.warn("llm platform not supported,model:{},platform:{}", aiModel.getName(), aiModel.getPlatform());
+            } else {
+                log.info("add llm model,model:{}", aiModel);
+                LLMContext.addLLMService(creator.apply(aiModel));
+            }
+        } else if (AdiConstant.ModelType.IMAGE.equals(aiModel.getType())) {
+            Function<AiModel, AbstractImageModelService<?>> creator = imageModelServiceCreators.get(aiModel.getPlatform());
+            if (null == creator) {
+                log.warn("image platform not supported,model:{},platform:{}", aiModel.getName(), aiModel.getPlatform());
+            } else {
+                log.info("add image model,model:{}", aiModel);
+                ImageModelContext.addImageModelService(creator.apply(aiModel));
+            }
+        }
+        refreshModelSnapshot();
+    }
+
+    /**
+     * 由当前启用的模型生成新的快照，整体替换{@link com.moyz.adi.common.util.LocalCache#MODEL_ID_TO_OBJ}
+     */
+    private void refreshModelSnapshot() {
+        Map<Long, AiModel> idToModel = new HashMap<>();
+        for (AiModel model : all) {
+            if (Boolean.TRUE.equals(model.getIsEnable())) {
+                idToModel.put(model.getId(), model);
+            }
         }
-        MODEL_ID_TO_OBJ.put(aiModel.getId(), aiModel);
+        LocalCache.MODEL_ID_TO_OBJ = Collections.unmodifiableMap(idToModel);
     }
 }
@@ -6,12 +6,10 @@ import com.moyz.adi.common.base.ThreadContext;
 import com.moyz.adi.common.cosntant.AdiConstant;
 import com.moyz.adi.common.dto.AskReq;
 import com.moyz.adi.common.entity.AiModel;
-import com.moyz.adi.common.entity.Conversation;
 import com.moyz.adi.common.entity.ConversationMessage;
 import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.enums.ChatMessageRoleEnum;
 import com.moyz.adi.common.enums.ErrorEnum;
-import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.LLMContext;
 import com.moyz.adi.common.helper.QuotaHelper;
 import com.moyz.adi.common.helper.SSEEmitterHelper;
@@ -22,10 +20,10 @@ import com.moyz.adi.common.vo.*;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
@@ -54,11 +52,17 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
     @Resource
     private SSEEmitterHelper sseEmitterHelper;
 
+    /**
+     * 是否在LLM回复结束后异步保存问题及答案
+     */
+    @Value("${adi.conversation.async-save:false}")
+    private boolean asyncSave;
+
 
     public SseEmitter sseAsk(AskReq askReq) {
         SseEmitter sseEmitter = new SseEmitter();
         User user = ThreadContext.getCurrentUser();
-        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter)) {
+        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter, askReq.getModelName())) {
             return sseEmitter;
         }
         sseEmitterHelper.startSse(user, sseEmitter);
@@ -66,28 +70,26 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
         return sseEmitter;
     }
 
-    private boolean checkConversation(SseEmitter sseEmitter, User user, AskReq askReq) {
+    /**
+     * 检查业务规则，所需数据由{@link ConversationService#askPreflight(long, String, String)}一次查询获取，额度使用情况从计数器读取
+     *
+     * @return 检查通过时返回检查数据，否则返回null（已向客户端发送错误信息）
+     */
+    private AskPreflight checkConversation(SseEmitter sseEmitter, User user, AskReq askReq) {
         try {
+            AskPreflight preflight = conversationService.askPreflight(user.getId(), askReq.getConversationUuid(), askReq.getRegenerateQuestionUuid());
 
             //check 1: the conversation has been deleted
-            Conversation delConv = conversationService.lambdaQuery()
-                    .eq(Conversation::getUuid, askReq.getConversationUuid())
-                    .eq(Conversation::getIsDeleted, true)
-                    .one();
-            if (null != delConv) {
+            if (Boolean.TRUE.equals(preflight.getConversationDeleted())) {
                 sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, "该对话已经删除");
-                return false;
+                return null;
             }
 
             //check 2: conversation quota
-            Long convsCount = conversationService.lambdaQuery()
-                    .eq(Conversation::getUserId, user.getId())
-                    .eq(Conversation::getIsDeleted, false)
-                    .count();
             long convsMax = Integer.parseInt(LocalCache.CONFIGS.get(AdiConstant.SysConfigKey.CONVERSATION_MAX_NUM));
-            if (convsCount >= convsMax) {
+            if (preflight.getConversationCount() >= convsMax) {
                 sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, "对话数量已经达到上限，当前对话上限为：" + convsMax);
-                return false;
+                return null;
             }
 
             //check 3: current user's quota
@@ -96,32 +98,33 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
                 ErrorEnum errorMsg = quotaHelper.checkTextQuota(user);
                 if (null != errorMsg) {
                     sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, errorMsg.getInfo());
-                    return false;
+                    return null;
                 }
             }
+
+            //check 4: conversation and regenerated question exist
+            if (null == preflight.getConversationId()) {
+                sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, A_CONVERSATION_NOT_FOUND.getInfo());
+                return null;
+            }
+            if (StringUtils.isNotBlank(askReq.getRegenerateQuestionUuid()) && null == preflight.getRegeneratePrompt()) {
+                sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, B_MESSAGE_NOT_FOUND.getInfo());
+                return null;
+            }
+            return preflight;
         } catch (Exception e) {
             log.error("error", e);
             sseEmitter.completeWithError(e);
-            return false;
+            return null;
         }
-        return true;
     }
 
     @Async
     public void asyncCheckAndPushToClient(SseEmitter sseEmitter, User user, AskReq askReq) {
         log.info("asyncCheckAndPushToClient,userId:{}", user.getId());
         //check business rules
-        if (!checkConversation(sseEmitter, user, askReq)) {
-            return;
-        }
-        //questions
-        //system message
-        Conversation conversation = conversationService.lambdaQuery()
-                .eq(Conversation::getUuid, askReq.getConversationUuid())
-                .oneOpt()
-                .orElse(null);
-        if (null == conversation) {
-            sseEmitterHelper.sendErrorAndComplete(user.getId(), sseEmitter, A_CONVERSATION_NOT_FOUND.getInfo());
+        AskPreflight preflight = checkConversation(sseEmitter, user, askReq);
+        if (null == preflight) {
             return;
         }
 
@@ -135,16 +138,16 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
 
         //Assistant parameters
         AssistantChatParams.AssistantChatParamsBuilder assistantBuilder = AssistantChatParams.builder();
-        if (StringUtils.isNotBlank(conversation.getAiSystemMessage())) {
-            assistantBuilder.systemMessage(conversation.getAiSystemMessage());
+        if (StringUtils.isNotBlank(preflight.getAiSystemMessage())) {
+            assistantBuilder.systemMessage(preflight.getAiSystemMessage());
         }
         //history message
-        if (Boolean.TRUE.equals(conversation.getUnderstandContextEnable())) {
+        if (Boolean.TRUE.equals(preflight.getUnderstandContextEnable())) {
             assistantBuilder.messageId(askReq.getConversationUuid());
         }
         String prompt = askReq.getPrompt();
         if (StringUtils.isNotBlank(askReq.getRegenerateQuestionUuid())) {
-            prompt = getPromptMsgByQuestionUuid(askReq.getRegenerateQuestionUuid()).getRemark();
+            prompt = preflight.getRegeneratePrompt();
         }
         assistantBuilder.userMessage(prompt);
         assistantBuilder.imageUrls(askReq.getImageUrls());
@@ -152,10 +155,16 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
 
         sseAskParams.setLlmBuilderProperties(
                 LLMBuilderProperties.builder()
-                        .temperature(conversation.getLlmTemperature())
+                        .temperature(preflight.getLlmTemperature())
                         .build()
         );
-        sseEmitterHelper.commonProcess(sseAskParams, (response, questionMeta, answerMeta) -> self.saveAfterAiResponse(user, askReq, response, questionMeta, answerMeta));
+        sseEmitterHelper.commonProcess(sseAskParams, (response, questionMeta, answerMeta) -> {
+            if (asyncSave) {
+                self.asyncSaveAfterAiResponse(user, askReq, response, questionMeta, answerMeta);
+            } else {
+                self.saveAfterAiResponse(user, askReq, response, questionMeta, answerMeta);
+            }
+        });
     }
 
     public List<ConversationMessage> listQuestionsByConvId(long convId, long maxId, int pageSize) {
@@ -169,77 +178,71 @@ public class ConversationMessageService extends ServiceImpl<ConversationMessageM
         return getBaseMapper().selectList(queryWrapper);
     }
 
-    @Transactional
-    public void saveAfterAiResponse(User user, AskReq askReq, String response, PromptMeta questionMeta, AnswerMeta answerMeta) {
+    /**
+     * 异步保存问题及答案，不占用LLM回调线程
+     */
+    @Async
+    public void asyncSaveAfterAiResponse(User user, AskReq askReq, String response, PromptMeta questionMeta, AnswerMeta answerMeta) {
+        try {
+            saveAfterAiResponse(user, askReq, response, questionMeta, answerMeta);
+        } catch (Exception e) {
+            log.error("asyncSaveAfterAiResponse error,questionUuid:{}", questionMeta.getUuid(), e);
+        }
+    }
 
-        Conversation conversation;
-        String prompt = askReq.getPrompt();
+    /**
+     * 保存问题及答案
+     * <br/>对话token累加并取回对话id、问题及答案的写入、用户当天消耗的累加各只需一条语句，均为原子操作，无需事务
+     */
+    public void saveAfterAiResponse(User user, AskReq askReq, String response, PromptMeta questionMeta, AnswerMeta answerMeta) {
         String convUuid = askReq.getConversationUuid();
-        conversation = conversationService.lambdaQuery()
-                .eq(Conversation::getUuid, convUuid)
-                .eq(Conversation::getUserId, user.getId())
-                .oneOpt()
-                .orElseGet(() -> conversationService.createByFirstMessage(user.getId(), convUuid, prompt));
         AiModel aiModel = LLMContext.getAiModel(askReq.getModelName());
+        int tokenCost = questionMeta.getTokens() + answerMeta.getTokens();
+
+        //calculate conversation tokens
+        Long conversationId = conversationService.getBaseMapper().incrTokensReturningId(user.getId(), convUuid, tokenCost);
+        if (null == conversationId) {
+            conversationService.createByFirstMessage(user.getId(), convUuid, askReq.getPrompt());
+            conversationId = conversationService.getBaseMapper().incrTokensReturningId(user.getId(), convUuid, tokenCost);
+        }
+
+        //response message
+        ConversationMessage aiAnswer = new ConversationMessage();
+        aiAnswer.setUserId(user.getId());
+        aiAnswer.setUuid(answerMeta.getUuid());
+        aiAnswer.setConversationId(conversationId);
+        aiAnswer.setConversationUuid(convUuid);
+        aiAnswer.setMessageRole(ChatMessageRoleEnum.ASSISTANT.getValue());
+        aiAnswer.setRemark(response);
+        aiAnswer.setTokens(answerMeta.getTokens());
+        aiAnswer.setAiModelId(aiModel.getId());
+
         //Check if regenerate question
-        ConversationMessage promptMsg;
         if (StringUtils.isNotBlank(askReq.getRegenerateQuestionUuid())) {
-            promptMsg = getPromptMsgByQuestionUuid(askReq.getRegenerateQuestionUuid());
+            baseMapper.insertAnswerByQuestionUuid(aiAnswer, askReq.getRegenerateQuestionUuid());
         } else {
             //Save new question message
             ConversationMessage question = new ConversationMessage();
             question.setUserId(user.getId());
             question.setUuid(questionMeta.getUuid());
-            question.setConversationId(conversation.getId());
+            question.setConversationId(conversationId);
             question.setConversationUuid(convUuid);
             question.setMessageRole(ChatMessageRoleEnum.USER.getValue());
-            question.setRemark(prompt);
+            question.setRemark(askReq.getPrompt());
             question.setAiModelId(aiModel.getId());
             question.setTokens(questionMeta.getTokens());
             question.setUnderstandContextMsgPairNum(user.getUnderstandContextMsgPairNum());
             question.setAttachments(String.join(",", askReq.getImageUrls()));
-            baseMapper.insert(question);
-
-            promptMsg = this.lambdaQuery().eq(ConversationMessage::getUuid, questionMeta.getUuid()).one();
+            baseMapper.insertQuestionAndAnswer(question, aiAnswer);
         }
 
-        //save response message
-        ConversationMessage aiAnswer = new ConversationMessage();
-        aiAnswer.setUserId(user.getId());
-        aiAnswer.setUuid(answerMeta.getUuid());
-        aiAnswer.setConversationId(conversation.getId());
-        aiAnswer.setConversationUuid(convUuid);
-        aiAnswer.setMessageRole(ChatMessageRoleEnum.ASSISTANT.getValue());
-        aiAnswer.setRemark(response);
-        aiAnswer.setTokens(answerMeta.getTokens());
-        aiAnswer.setParentMessageId(promptMsg.getId());
-        aiAnswer.setAiModelId(aiModel.getId());
-        baseMapper.insert(aiAnswer);
-
-        calcTodayCost(user, conversation, questionMeta, answerMeta, aiModel.getIsFree());
-
-    }
-
-    private void calcTodayCost(User user, Conversation conversation, PromptMeta questionMeta, AnswerMeta answerMeta, boolean isFreeToken) {
-
-        int todayTokenCost = questionMeta.getTokens() + answerMeta.getTokens();
         try {
-            //calculate conversation tokens
-            conversationService.lambdaUpdate()
-                    .eq(Conversation::getId, conversation.getId())
-                    .set(Conversation::getTokens, conversation.getTokens() + todayTokenCost)
-                    .update();
-
-            userDayCostService.appendCostToUser(user, todayTokenCost, isFreeToken);
+            userDayCostService.appendCostToUser(user, tokenCost, aiModel.getIsFree());
         } catch (Exception e) {
             log.error("calcTodayCost error", e);
         }
     }
 
-    private ConversationMessage getPromptMsgByQuestionUuid(String questionUuid) {
-        return this.lambdaQuery().eq(ConversationMessage::getUuid, questionUuid).oneOpt().orElseThrow(() -> new BaseException(B_MESSAGE_NOT_FOUND));
-    }
-
     public boolean softDelete(String uuid) {
         return this.lambdaUpdate()
                 .eq(ConversationMessage::getUuid, uuid)
@@ -10,6 +10,7 @@ import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.mapper.ConversationMapper;
 import com.moyz.adi.common.util.MPPageUtil;
 import com.moyz.adi.common.util.UuidUtil;
+import com.moyz.adi.common.vo.AskPreflight;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
@@ -104,16 +105,29 @@ public class ConversationService extends ServiceImpl<ConversationMapper, Convers
             }
             return b;
         }).getUuid();
-        //Wrap question content
-        List<ConvMsgDto> userMessages = MPPageUtil.convertToList(questions, ConvMsgDto.class, (source, target) -> {
-            if (StringUtils.isNotBlank(source.getAttachments())) {
-                List<String> urls = fileService.getUrls(Arrays.stream(source.getAttachments().split(",")).toList());
-                target.setAttachmentUrls(urls);
-            } else {
-                target.setAttachmentUrls(Collections.emptyList());
+        //Wrap question content, 本页所有问题的附件一次查询
+        Map<Long, List<String>> idToAttachments = new HashMap<>();
+        Set<String> attachmentUuids = new HashSet<>();
+        for (ConversationMessage question : questions) {
+            if (StringUtils.isNotBlank(question.getAttachments())) {
+                List<String> uuids = Arrays.asList(question.getAttachments().split(","));
+                idToAttachments.put(question.getId(), uuids);
+                attachmentUuids.addAll(uuids);
             }
-            return target;
-        });
+        }
+        Map<String, String> uuidToUrl = fileService.getUuidToUrl(attachmentUuids);
+        List<ConvMsgDto> userMessages = new ArrayList<>(questions.size());
+        for (ConversationMessage question : questions) {
+            ConvMsgDto convMsgDto = toConvMsgDto(question);
+            convMsgDto.setAttachmentUrls(
+                    idToAttachments.getOrDefault(question.getId(), Collections.emptyList())
+                            .stream()
+                            .map(uuidToUrl::get)
+                            .filter(Objects::nonNull)
+                            .toList()
+            );
+            userMessages.add(convMsgDto);
+        }
         ConvMsgListResp result = new ConvMsgListResp(minUuid, userMessages);
 
         //Wrap answer content
@@ -127,14 +141,16 @@ public class ConversationService extends ServiceImpl<ConversationMapper, Convers
 
         //Fill AI answer to the request of user
         result.getMsgList().forEach(item -> {
-            List<ConvMsgDto> children = MPPageUtil.convertToList(idToMessages.get(item.getId()), ConvMsgDto.class);
-            if (children.size() > 1) {
-                children = children.stream().sorted(Comparator.comparing(ConvMsgDto::getCreateTime).reversed()).toList();
-            }
-
-            for (ConvMsgDto convMsgDto : children) {
+            List<ConversationMessage> messages = idToMessages.getOrDefault(item.getId(), Collections.emptyList());
+            List<ConvMsgDto> children = new ArrayList<>(messages.size());
+            for (ConversationMessage message : messages) {
+                ConvMsgDto convMsgDto = toConvMsgDto(message);
                 AiModel aiModel = MODEL_ID_TO_OBJ.get(convMsgDto.getAiModelId());
                 convMsgDto.setAiModelPlatform(null == aiModel ? "" : aiModel.getPlatform());
+                children.add(convMsgDto);
+            }
+            if (children.size() > 1) {
+                children.sort(Comparator.comparing(ConvMsgDto::getCreateTime).reversed());
             }
             item.setChildren(children);
         });
@@ -245,6 +261,34 @@ public class ConversationService extends ServiceImpl<ConversationMapper, Convers
         return baseMapper.countAllCreated();
     }
 
+    /**
+     * 一次查询获取提问前检查所需的数据
+     *
+     * @param userId                 用户id
+     * @param uuid                   对话uuid
+     * @param regenerateQuestionUuid 重新生成答案时的问题uuid，可为空
+     * @return 检查数据
+     */
+    public AskPreflight askPreflight(long userId, String uuid, String regenerateQuestionUuid) {
+        return baseMapper.askPreflight(userId, uuid, regenerateQuestionUuid);
+    }
+
+    /**
+     * 直接赋值，避免逐行反射复制属性
+     */
+    private static ConvMsgDto toConvMsgDto(ConversationMessage message) {
+        ConvMsgDto convMsgDto = new ConvMsgDto();
+        convMsgDto.setId(message.getId());
+        convMsgDto.setUuid(message.getUuid());
+        convMsgDto.setParentMessageId(message.getParentMessageId());
+        convMsgDto.setRemark(message.getRemark());
+        convMsgDto.setMessageRole(message.getMessageRole());
+        convMsgDto.setTokens(message.getTokens());
+        convMsgDto.setCreateTime(message.getCreateTime());
+        convMsgDto.setAiModelId(message.getAiModelId());
+        return convMsgDto;
+    }
+
     private Conversation getOrThrow(String uuid) {
         Conversation conversation = this.lambdaQuery()
                 .eq(Conversation::getUuid, uuid)
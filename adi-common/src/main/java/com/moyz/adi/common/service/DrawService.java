@@ -102,14 +102,16 @@ public class DrawService extends ServiceImpl<DrawMapper, Draw> {
             throw new BaseException(A_DRAWING);
         }
 
-        String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_TEXT_TIMES, user.getId());
-        if (!rateLimitHelper.checkRequestTimes(requestTimesKey, LocalCache.TEXT_RATE_LIMIT_CONFIG)) {
-            throw new BaseException(A_REQUEST_TOO_MUCH);
-        }
+        //check 2: quota
         ErrorEnum errorEnum = quotaHelper.checkImageQuota(user, false);
         if (null != errorEnum) {
             throw new BaseException(errorEnum);
         }
+        //check 3: rate limit, the request is counted if passed
+        String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_IMAGE_TIMES, user.getId());
+        if (!rateLimitHelper.tryAcquire(requestTimesKey, LocalCache.IMAGE_RATE_LIMIT_CONFIG)) {
+            throw new BaseException(A_REQUEST_TOO_MUCH);
+        }
     }
 
     /**
@@ -208,10 +210,6 @@ public class DrawService extends ServiceImpl<DrawMapper, Draw> {
         stringRedisTemplate.opsForValue().set(drawingKey, "1", 30, TimeUnit.SECONDS);
 
         try {
-            //Increase the number of the request
-            String requestTimesKey = MessageFormat.format(RedisKeyConstant.USER_REQUEST_TEXT_TIMES, user.getId());
-            rateLimitHelper.increaseRequestTimes(requestTimesKey, LocalCache.IMAGE_RATE_LIMIT_CONFIG);
-
             AbstractImageModelService<?> imageModelService = ImageModelContext.getModelService(draw.getAiModelName());
             List<String> images;
             if (draw.getInteractingMethod() == INTERACTING_METHOD_EDIT_IMAGE) {
@@ -236,18 +234,7 @@ public class DrawService extends ServiceImpl<DrawMapper, Draw> {
 
             //Update the cost of current user
             boolean modelIsFree = imageModelService.getAiModel().getIsFree();
-            UserDayCost userDayCost = userDayCostService.getTodayCost(user, modelIsFree);
-            UserDayCost saveOrUpdateInst = new UserDayCost();
-            if (null == userDayCost) {
-                saveOrUpdateInst.setUserId(user.getId());
-                saveOrUpdateInst.setDay(LocalDateTimeUtil.getToday());
-                saveOrUpdateInst.setDrawTimes(1);
-            } else {
-                saveOrUpdateInst.setId(userDayCost.getId());
-                saveOrUpdateInst.setDrawTimes(userDayCost.getDrawTimes() + 1);
-            }
-            saveOrUpdateInst.setIsFree(modelIsFree);
-            userDayCostService.saveOrUpdate(saveOrUpdateInst);
+            userDayCostService.appendDrawToUser(user, modelIsFree);
         } catch (BaseException e) {
             log.error("createFromRemote error", e);
             updateDrawFail(draw.getId(), e.getMessage());
@@ -47,7 +47,7 @@ public class DrawStarService extends ServiceImpl<DrawStarMapper, DrawStar> {
         }
     }
 
-    @Cacheable(cacheNames = USER_INFO, condition = "#drawId>0 && #userId>0", key = "'star:'+#drawId+':'+#userId")
+    @Cacheable(cacheNames = USER_INFO, condition = "#drawId>0 && #userId>0", key = "'star:'+#drawId+':'+#userId", sync = true)
     public boolean isStarred(Long drawId, Long userId) {
         DrawStar drawStar = this.lambdaQuery()
                 .eq(DrawStar::getDrawId, drawId)
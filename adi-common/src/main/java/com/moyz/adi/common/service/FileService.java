@@ -23,8 +23,11 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.moyz.adi.common.enums.ErrorEnum.A_AI_IMAGE_NO_AUTH;
@@ -237,4 +240,23 @@ public class FileService extends ServiceImpl<FileMapper, AdiFile> {
                 });
         return result;
     }
+
+    /**
+     * 一次查询获取多个文件的url
+     *
+     * @param fileUuids 文件uuid
+     * @return key: 文件uuid, value: 文件url，不存在或已删除的文件不包含在内
+     */
+    public Map<String, String> getUuidToUrl(Collection<String> fileUuids) {
+        if (CollectionUtils.isEmpty(fileUuids)) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> result = new HashMap<>();
+        this.lambdaQuery()
+                .in(AdiFile::getUuid, fileUuids)
+                .eq(AdiFile::getIsDeleted, false)
+                .list()
+                .forEach(adiFile -> result.put(adiFile.getUuid(), adiFileHelper.getFileUrl(adiFile)));
+        return result;
+    }
 }
@@ -1,6 +1,7 @@
 package com.moyz.adi.common.service;
 
 import com.moyz.adi.common.helper.AliyunOssHelper;
+import com.moyz.adi.common.helper.ConfigChangeHelper;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
@@ -30,20 +31,33 @@ public class Initializer {
     @Resource
     private AliyunOssHelper aliyunOssHelper;
 
+    @Resource
+    private ConfigChangeHelper configChangeHelper;
+
     /**
-     * 应用初始化
+     * 应用初始化，先注册变更通知再加载，避免加载期间的修改被遗漏
      */
     @PostConstruct
     public void init() {
+        configChangeHelper.register(ConfigChangeHelper.TYPE_SYS_CONFIG, sysConfigService::reload);
+        configChangeHelper.register(ConfigChangeHelper.TYPE_AI_MODEL, aiModelService::reload);
         sysConfigService.loadAndCache();
         aiModelService.init();
     }
 
     /**
-     * 10分钟重刷一次配置信息
+     * 配置的修改通过redis pub/sub通知，此处只比较版本号，防止漏收通知
      */
-    @Scheduled(initialDelay = 10 * 60 * 1000, fixedDelay = 10 * 60 * 1000)
+    @Scheduled(initialDelayString = "${adi.config-sync.version-check-interval-millis:60000}", fixedDelayString = "${adi.config-sync.version-check-interval-millis:60000}")
+    public void checkConfigVersion() {
+        configChangeHelper.checkVersions();
+    }
+
+    /**
+     * 以较长的间隔重新加载全部配置，作为通知及版本号都失效时的兜底；模型只重新创建有变化的
+     */
+    @Scheduled(initialDelayString = "${adi.config-sync.full-reload-interval-millis:3600000}", fixedDelayString = "${adi.config-sync.full-reload-interval-millis:3600000}")
     public void reloadConfig() {
-        sysConfigService.loadAndCache();
+        configChangeHelper.reloadAll();
     }
 }
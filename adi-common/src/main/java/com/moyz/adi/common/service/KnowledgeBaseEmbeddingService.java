@@ -37,9 +37,9 @@ public class KnowledgeBaseEmbeddingService extends ServiceImpl<KnowledgeBaseEmbe
      * 删除{kbItemUuid}这个知识库条目的向量
      *
      * @param kbItemUuid 知识库条目uuid
-     * @return
+     * @return 删除的向量数量
      */
-    public boolean deleteByItemUuid(String kbItemUuid) {
+    public int deleteByItemUuid(String kbItemUuid) {
         return baseMapper.deleteByItemUuid(kbItemUuid);
     }
 
@@ -2,10 +2,61 @@ package com.moyz.adi.common.service;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.moyz.adi.common.entity.KnowledgeBaseGraphSegment;
+import com.moyz.adi.common.enums.GraphSegmentExtractStatusEnum;
 import com.moyz.adi.common.mapper.KnowledgeBaseGraphSegmentMapper;
+import org.apache.commons.collections4.CollectionUtils;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.List;
+
 @Service
 public class KnowledgeBaseGraphSegmentService extends ServiceImpl<KnowledgeBaseGraphSegmentMapper, KnowledgeBaseGraphSegment> {
 
+    /**
+     * 查询知识点已有的抽取断点（按id升序，同一序号以后创建的为准）
+     *
+     * @param kbItemUuid 知识点uuid
+     * @return 文本块列表
+     */
+    public List<KnowledgeBaseGraphSegment> listCheckpoints(String kbItemUuid) {
+        return this.lambdaQuery()
+                .eq(KnowledgeBaseGraphSegment::getKbItemUuid, kbItemUuid)
+                .ge(KnowledgeBaseGraphSegment::getSegmentIndex, 0)
+                .eq(KnowledgeBaseGraphSegment::getIsDeleted, false)
+                .orderByAsc(KnowledgeBaseGraphSegment::getId)
+                .list();
+    }
+
+    /**
+     * 删除知识点已有的抽取断点，重新图谱化时使用
+     *
+     * @param kbItemUuid 知识点uuid
+     */
+    public void resetCheckpoints(String kbItemUuid) {
+        this.lambdaUpdate()
+                .eq(KnowledgeBaseGraphSegment::getKbItemUuid, kbItemUuid)
+                .ge(KnowledgeBaseGraphSegment::getSegmentIndex, 0)
+                .eq(KnowledgeBaseGraphSegment::getIsDeleted, false)
+                .set(KnowledgeBaseGraphSegment::getIsDeleted, true)
+                .update();
+    }
+
+    public void markExtracted(Long id, String llmResponse) {
+        this.lambdaUpdate()
+                .eq(KnowledgeBaseGraphSegment::getId, id)
+                .set(KnowledgeBaseGraphSegment::getExtractStatus, GraphSegmentExtractStatusEnum.EXTRACTED)
+                .set(KnowledgeBaseGraphSegment::getLlmResponse, llmResponse)
+                .update();
+    }
+
+    public void markStored(Collection<String> uuids) {
+        if (CollectionUtils.isEmpty(uuids)) {
+            return;
+        }
+        this.lambdaUpdate()
+                .in(KnowledgeBaseGraphSegment::getUuid, uuids)
+                .set(KnowledgeBaseGraphSegment::getExtractStatus, GraphSegmentExtractStatusEnum.STORED)
+                .update();
+    }
 }
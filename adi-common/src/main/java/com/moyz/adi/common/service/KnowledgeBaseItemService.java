@@ -4,19 +4,24 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.baomidou.mybatisplus.extension.toolkit.ChainWrappers;
 import com.moyz.adi.common.base.ThreadContext;
+import com.moyz.adi.common.config.RagProperties;
 import com.moyz.adi.common.cosntant.AdiConstant;
 import com.moyz.adi.common.dto.KbItemDto;
 import com.moyz.adi.common.dto.KbItemEditReq;
+import com.moyz.adi.common.dto.KbItemEmbeddingProgressResp;
 import com.moyz.adi.common.entity.KnowledgeBase;
 import com.moyz.adi.common.entity.KnowledgeBaseItem;
 import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.enums.EmbeddingStatusEnum;
 import com.moyz.adi.common.enums.GraphicalStatusEnum;
 import com.moyz.adi.common.exception.BaseException;
+import com.moyz.adi.common.helper.KbStatisticHelper;
 import com.moyz.adi.common.helper.LLMContext;
 import com.moyz.adi.common.interfaces.AbstractLLMService;
 import com.moyz.adi.common.mapper.KnowledgeBaseItemMapper;
 import com.moyz.adi.common.rag.CompositeRAG;
+import com.moyz.adi.common.util.AdiStringUtil;
+import com.moyz.adi.common.util.JsonUtil;
 import com.moyz.adi.common.util.UuidUtil;
 import com.moyz.adi.common.vo.GraphIngestParams;
 import com.moyz.adi.common.vo.LLMBuilderProperties;
@@ -39,7 +44,7 @@ import java.util.concurrent.TimeUnit;
 
 import static com.moyz.adi.common.cosntant.AdiConstant.DOC_INDEX_TYPE_EMBEDDING;
 import static com.moyz.adi.common.cosntant.AdiConstant.DOC_INDEX_TYPE_GRAPHICAL;
-import static com.moyz.adi.common.cosntant.RedisKeyConstant.KB_STATISTIC_RECALCULATE_SIGNAL;
+import static com.moyz.adi.common.cosntant.RedisKeyConstant.KB_ITEM_EMBEDDING_PROGRESS;
 import static com.moyz.adi.common.cosntant.RedisKeyConstant.USER_INDEXING;
 import static com.moyz.adi.common.enums.ErrorEnum.*;
 
@@ -63,6 +68,12 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
     @Resource
     private FileService fileService;
 
+    @Resource
+    private RagProperties ragProperties;
+
+    @Resource
+    private KbStatisticHelper kbStatisticHelper;
+
     public KnowledgeBaseItem saveOrUpdate(KbItemEditReq itemEditReq) {
         String uuid = itemEditReq.getUuid();
         KnowledgeBaseItem item = new KnowledgeBaseItem();
@@ -73,19 +84,23 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
             item.setBrief(StringUtils.substring(itemEditReq.getRemark(), 0, 200));
         }
         item.setRemark(itemEditReq.getRemark());
+        int newCharCount = AdiStringUtil.charCount(itemEditReq.getRemark());
         if (null == itemEditReq.getId() || itemEditReq.getId() < 1) {
             uuid = UuidUtil.createShort();
             item.setUuid(uuid);
             item.setKbId(itemEditReq.getKbId());
             item.setKbUuid(itemEditReq.getKbUuid());
             baseMapper.insert(item);
+            kbStatisticHelper.incrItem(itemEditReq.getKbUuid(), 1, newCharCount);
         } else {
+            KnowledgeBaseItem oldItem = baseMapper.selectById(itemEditReq.getId());
             item.setId(itemEditReq.getId());
             baseMapper.updateById(item);
+            if (null != oldItem) {
+                kbStatisticHelper.incrItem(oldItem.getKbUuid(), 0, (long) newCharCount - AdiStringUtil.charCount(oldItem.getRemark()));
+            }
         }
 
-        stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, itemEditReq.getKbUuid());
-
         return ChainWrappers.lambdaQueryChain(baseMapper)
                 .eq(KnowledgeBaseItem::getUuid, uuid)
                 .one();
@@ -139,10 +154,11 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
                 metadata.put(AdiConstant.MetadataKey.KB_UUID, kbItem.getKbUuid());
                 metadata.put(AdiConstant.MetadataKey.KB_ITEM_UUID, kbItem.getUuid());
                 Document document = new Document(kbItem.getRemark(), metadata);
-                knowledgeBaseEmbeddingService.deleteByItemUuid(kbItem.getUuid());
+                int deletedCount = knowledgeBaseEmbeddingService.deleteByItemUuid(kbItem.getUuid());
+                kbStatisticHelper.incrEmbedding(kbItem.getKbUuid(), -deletedCount);
                 indexingEmbedding(knowledgeBase, kbItem, document);
             }
-            if (indexTypes.contains(DOC_INDEX_TYPE_GRAPHICAL) && kbItem.getGraphicalStatus() != GraphicalStatusEnum.DOING) {
+            if (indexTypes.contains(DOC_INDEX_TYPE_GRAPHICAL) && (kbItem.getGraphicalStatus() != GraphicalStatusEnum.DOING || isGraphicalStale(kbItem))) {
                 Metadata metadata = new Metadata();
                 metadata.put(AdiConstant.MetadataKey.KB_UUID, kbItem.getKbUuid());
                 metadata.put(AdiConstant.MetadataKey.KB_ITEM_UUID, kbItem.getUuid());
@@ -150,7 +166,6 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
                 indexingGraph(user, knowledgeBase, kbItem, document);
             }
         } finally {
-            stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, kbItem.getKbUuid());
             stringRedisTemplate.delete(MessageFormat.format(USER_INDEXING, knowledgeBase.getOwnerId()));
         }
 
@@ -163,7 +178,12 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
                     .set(KnowledgeBaseItem::getEmbeddingStatusChangeTime, LocalDateTime.now())
                     .set(KnowledgeBaseItem::getEmbeddingStatus, EmbeddingStatusEnum.DOING)
                     .update();
-            compositeRAG.getEmbeddingRAGService().ingest(document, knowledgeBase.getIngestMaxOverlap(), null);
+            String progressKey = MessageFormat.format(KB_ITEM_EMBEDDING_PROGRESS, kbItem.getUuid());
+            int embeddingCount = compositeRAG.getEmbeddingRAGService().ingestWithProgress(document, knowledgeBase.getIngestMaxOverlap(), (embeddedCount, totalCount) -> {
+                log.info("Embedding progress,kbItemUuid:{},{}/{}", kbItem.getUuid(), embeddedCount, totalCount);
+                stringRedisTemplate.opsForValue().set(progressKey, JsonUtil.toJson(new KbItemEmbeddingProgressResp(embeddedCount, totalCount)), 1, TimeUnit.HOURS);
+            });
+            kbStatisticHelper.incrEmbedding(kbItem.getKbUuid(), embeddingCount);
             ChainWrappers.lambdaUpdateChain(baseMapper)
                     .eq(KnowledgeBaseItem::getId, kbItem.getId())
                     .set(KnowledgeBaseItem::getEmbeddingStatus, EmbeddingStatusEnum.DONE)
@@ -190,7 +210,7 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
                     LLMBuilderProperties.builder()
                             .temperature(knowledgeBase.getQueryLlmTemperature())
                             .build()
-                    , kbItem.getUuid()
+                    , null
             );
 
             //Ingest document
@@ -203,6 +223,17 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
                             .identifyColumns(List.of(AdiConstant.MetadataKey.KB_UUID))
                             .appendColumns(List.of(AdiConstant.MetadataKey.KB_ITEM_UUID))
                             .isFreeToken(llmService.getAiModel().getIsFree())
+                            .aiModelId(llmService.getAiModel().getId())
+                            .resume(isGraphicalInterrupted(kbItem))
+                            .progressConsumer((storedCount, totalCount) -> {
+                                log.info("Graphical progress,kbItemUuid:{},{}/{}", kbItem.getUuid(), storedCount, totalCount);
+                                //刷新状态变更时间，用于判断图谱化是否已中断
+                                ChainWrappers.lambdaUpdateChain(baseMapper)
+                                        .eq(KnowledgeBaseItem::getId, kbItem.getId())
+                                        .set(KnowledgeBaseItem::getGraphicalStatusChangeTime, LocalDateTime.now())
+                                        .update();
+                            })
+                            .graphAddedConsumer((vertexCount, edgeCount) -> kbStatisticHelper.incrGraph(kbItem.getKbUuid(), vertexCount, edgeCount))
                             .build()
             );
             ChainWrappers.lambdaUpdateChain(baseMapper)
@@ -219,22 +250,63 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
         }
     }
 
+    /**
+     * 上次图谱化是否中断(失败，或长时间没有进展)，中断时从断点继续，否则重新抽取
+     *
+     * @param kbItem 知识点(发起图谱化前的状态)
+     * @return 是否中断
+     */
+    private boolean isGraphicalInterrupted(KnowledgeBaseItem kbItem) {
+        return kbItem.getGraphicalStatus() == GraphicalStatusEnum.FAIL
+                || (kbItem.getGraphicalStatus() == GraphicalStatusEnum.DOING && isGraphicalStale(kbItem));
+    }
+
+    /**
+     * 图谱化状态长时间没有变化（如服务重启导致中断），允许重新发起，重新发起时从断点继续
+     *
+     * @param kbItem 知识点
+     * @return 是否已中断
+     */
+    private boolean isGraphicalStale(KnowledgeBaseItem kbItem) {
+        LocalDateTime changeTime = kbItem.getGraphicalStatusChangeTime();
+        return null != changeTime && changeTime.plusMinutes(ragProperties.getGraphExtract().getStaleInMinutes()).isBefore(LocalDateTime.now());
+    }
+
+    /**
+     * 查询知识点的向量化进度
+     *
+     * @param uuid 知识点uuid
+     * @return 进度，没有正在进行或近期完成的向量化时返回null
+     */
+    public KbItemEmbeddingProgressResp getEmbeddingProgress(String uuid) {
+        if (!checkPrivilege(uuid)) {
+            throw new BaseException(A_USER_NOT_AUTH);
+        }
+        String progress = stringRedisTemplate.opsForValue().get(MessageFormat.format(KB_ITEM_EMBEDDING_PROGRESS, uuid));
+        if (StringUtils.isBlank(progress)) {
+            return null;
+        }
+        return JsonUtil.fromJson(progress, KbItemEmbeddingProgressResp.class);
+    }
+
     @Transactional
     public boolean softDelete(String uuid) {
         boolean privilege = checkPrivilege(uuid);
         if (!privilege) throw new BaseException(A_USER_NOT_AUTH);
         boolean success = ChainWrappers.lambdaUpdateChain(baseMapper)
                 .eq(KnowledgeBaseItem::getUuid, uuid)
+                .eq(KnowledgeBaseItem::getIsDeleted, false)
                 .set(KnowledgeBaseItem::getIsDeleted, true)
                 .update();
         if (!success) {
             return false;
         }
-        knowledgeBaseEmbeddingService.deleteByItemUuid(uuid);
+        int deletedCount = knowledgeBaseEmbeddingService.deleteByItemUuid(uuid);
 
         KnowledgeBaseItem item = baseMapper.getByUuid(uuid);
         if (null != item) {
-            stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, item.getKbUuid());
+            kbStatisticHelper.incrItem(item.getKbUuid(), -1, -AdiStringUtil.charCount(item.getRemark()));
+            kbStatisticHelper.incrEmbedding(item.getKbUuid(), -deletedCount);
         }
         return true;
     }
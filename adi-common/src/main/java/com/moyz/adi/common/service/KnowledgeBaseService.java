@@ -13,6 +13,7 @@ import com.moyz.adi.common.dto.KbSearchReq;
 import com.moyz.adi.common.entity.*;
 import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.AdiFileHelper;
+import com.moyz.adi.common.helper.KbStatisticHelper;
 import com.moyz.adi.common.helper.LLMContext;
 import com.moyz.adi.common.helper.SSEEmitterHelper;
 import com.moyz.adi.common.mapper.KnowledgeBaseMapper;
@@ -20,13 +21,16 @@ import com.moyz.adi.common.rag.AdiEmbeddingStoreContentRetriever;
 import com.moyz.adi.common.rag.CompositeRAG;
 import com.moyz.adi.common.rag.EmbeddingRAG;
 import com.moyz.adi.common.rag.GraphStoreContentRetriever;
+import com.moyz.adi.common.util.AdiStringUtil;
 import com.moyz.adi.common.util.BizPager;
+import com.moyz.adi.common.util.LocalCache;
 import com.moyz.adi.common.util.LocalDateTimeUtil;
 import com.moyz.adi.common.util.MPPageUtil;
 import com.moyz.adi.common.util.UuidUtil;
 import com.moyz.adi.common.vo.AssistantChatParams;
 import com.moyz.adi.common.vo.LLMBuilderProperties;
 import com.moyz.adi.common.vo.SseAskParams;
+import com.moyz.adi.common.vo.TokenUsageAccumulator;
 import com.moyz.adi.common.vo.UpdateQaParams;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.model.chat.ChatLanguageModel;
@@ -36,6 +40,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.BeanUtils;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -69,6 +74,9 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
     @Resource
     private CompositeRAG compositeRAG;
 
+    @Resource
+    private KbStatisticHelper kbStatisticHelper;
+
     @Resource
     private KnowledgeBaseItemService knowledgeBaseItemService;
 
@@ -176,6 +184,9 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
             knowledgeBaseItem.setBrief(StringUtils.substring(content, 0, 200));
             knowledgeBaseItem.setRemark(content);
             boolean success = knowledgeBaseItemService.save(knowledgeBaseItem);
+            if (success) {
+                kbStatisticHelper.incrItem(knowledgeBase.getUuid(), 1, AdiStringUtil.charCount(content));
+            }
             if (success && Boolean.TRUE.equals(indexAfterUpload)) {
                 indexItems(List.of(uuid), indexTypes);
             }
@@ -296,7 +307,9 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
         checkRequestTimesOrThrow();
         SseEmitter sseEmitter = new SseEmitter();
         User user = ThreadContext.getCurrentUser();
-        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter)) {
+        KnowledgeBaseQa qaRecord = knowledgeBaseQaRecordService.getOrThrow(qaRecordUuid);
+        AiModel aiModel = LocalCache.MODEL_ID_TO_OBJ.get(qaRecord.getAiModelId());
+        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter, null == aiModel ? null : aiModel.getName())) {
             return sseEmitter;
         }
         sseEmitterHelper.startSse(user, sseEmitter);
@@ -417,7 +430,7 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
                     LLMBuilderProperties.builder()
                             .temperature(knowledgeBase.getQueryLlmTemperature())
                             .build()
-                    , qaRecordUuid);
+                    , sseAskParams.getTokenUsage());
             List<ContentRetriever> retrievers = compositeRAG.createRetriever(chatLanguageModel, metadataCond, maxResults, knowledgeBase.getRetrieveMinScore(), knowledgeBase.getIsStrict());
             compositeRAG.ragChat(retrievers, sseAskParams, (response, promptMeta, answerMeta) -> updateQaRecord(
                     UpdateQaParams.builder()
@@ -433,21 +446,9 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
     }
 
     private void updateQaRecord(UpdateQaParams updateQaParams) {
-        List<String> tokenCountList = stringRedisTemplate.opsForList().range(MessageFormat.format(TOKEN_USAGE_KEY, updateQaParams.getSseAskParams().getUuid()), 0, -1);
-        int inputTokenCount = 0;
-        int outputTokenCount = 0;
-        if (!CollectionUtils.isEmpty(tokenCountList) && tokenCountList.size() > 1) {
-            int tokenCountListSize = tokenCountList.size();
-            int i = 0;
-            while (i < tokenCountListSize) {
-                inputTokenCount += Integer.parseInt(tokenCountList.get(i));
-                i++;
-                if (i < tokenCountListSize) {
-                    outputTokenCount += Integer.parseInt(tokenCountList.get(i));
-                }
-                i++;
-            }
-        }
+        TokenUsageAccumulator tokenUsage = updateQaParams.getSseAskParams().getTokenUsage();
+        int inputTokenCount = tokenUsage.getInputTokens();
+        int outputTokenCount = tokenUsage.getOutputTokens();
 
         KnowledgeBaseQa qaRecord = updateQaParams.getQaRecord();
         User user = updateQaParams.getUser();
@@ -462,11 +463,9 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
 
         createRef(updateQaParams.getRetrievers(), user, qaRecord.getId());
         //用户本次请求消耗的token数指的是整个RAG过程中消耗的token数量，其中可能涉及到多次LLM请求
-        if (null != tokenCountList) {
-            int allToken = tokenCountList.stream().map(Integer::parseInt).reduce(0, Integer::sum);
-            log.info("用户{}本次请示消耗总token:{}", user.getName(), allToken);
-            userDayCostService.appendCostToUser(user, allToken, updateQaParams.isTokenFree());
-        }
+        int allToken = tokenUsage.getTotalTokens();
+        log.info("用户{}本次请示消耗总token:{}", user.getName(), allToken);
+        userDayCostService.appendCostToUser(user, allToken, updateQaParams.isTokenFree());
     }
 
     /**
@@ -497,12 +496,18 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
     }
 
     /**
-     * Set update knowledge base stat signal
+     * 重新统计知识库数据（对账）
+     * <br/>有待合并的增量时跳过，等下一次对账，避免增量被重复计算
      *
      * @param kbUuid 知识库uuid
      */
     public void updateStatistic(String kbUuid) {
-        stringRedisTemplate.opsForSet().add(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid);
+        if (kbStatisticHelper.hasDelta(kbUuid)) {
+            log.info("Knowledge base has pending statistic delta,skip reconciliation,kbUuid:{}", kbUuid);
+            return;
+        }
+        Pair<Long, Long> graphCount = compositeRAG.getGraphRAGService().countGraph(Map.of(AdiConstant.MetadataKey.KB_UUID, kbUuid));
+        baseMapper.updateStatByUuid(kbUuid, graphCount.getLeft(), graphCount.getRight());
     }
 
     public int countTodayCreated() {
@@ -517,7 +522,7 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
     }
 
     /**
-     * Update knowledge base stat
+     * 把redis中累加的统计增量合并到知识库
      */
     @Scheduled(fixedDelay = 60 * 1000)
     public void asyncUpdateStatistic() {
@@ -526,11 +531,26 @@ public class KnowledgeBaseService extends ServiceImpl<KnowledgeBaseMapper, Knowl
             return;
         }
         for (String kbUuid : kbUuidList) {
-            baseMapper.updateStatByUuid(kbUuid);
-            stringRedisTemplate.opsForSet().remove(KB_STATISTIC_RECALCULATE_SIGNAL, kbUuid);
+            kbStatisticHelper.flush(kbUuid, delta -> baseMapper.incrStatByUuid(kbUuid, delta));
         }
     }
 
+    /**
+     * 定时对账，修正增量统计可能出现的偏差（如合并失败、服务中断）
+     */
+    @Scheduled(cron = "${adi.kb-statistic.reconcile-cron:0 30 3 * * ?}")
+    public void reconcileStatistic() {
+        LambdaQueryWrapper<KnowledgeBase> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(KnowledgeBase::getIsDeleted, false);
+        BizPager.oneByOneWithAnchor(wrapper, this, KnowledgeBase::getId, knowledgeBase -> {
+            try {
+                updateStatistic(knowledgeBase.getUuid());
+            } catch (Exception e) {
+                log.error("Reconcile knowledge base statistic error,kbUuid:{}", knowledgeBase.getUuid(), e);
+            }
+        });
+    }
+
     private void checkPrivilege(Long kbId, String kbUuid) {
         if (null == kbId && StringUtils.isBlank(kbUuid)) {
             throw new BaseException(A_PARAMS_ERROR);
@@ -74,7 +74,7 @@ public class SearchService {
     public SseEmitter search(boolean isBriefSearch, String searchText, String engineName, String modelName) {
         User user = ThreadContext.getCurrentUser();
         SseEmitter sseEmitter = new SseEmitter();
-        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter)) {
+        if (!sseEmitterHelper.checkOrComplete(user, sseEmitter, modelName)) {
             return sseEmitter;
         }
         sseEmitterHelper.startSse(user, sseEmitter);
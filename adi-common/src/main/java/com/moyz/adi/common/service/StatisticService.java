@@ -34,7 +34,7 @@ public class StatisticService {
     @Resource
     private DrawService drawService;
 
-    @Cacheable(value = STATISTIC + ":" + STATISTIC_USER)
+    @Cacheable(value = STATISTIC + ":" + STATISTIC_USER, sync = true)
     public UserStatistic calUserStat() {
         UserStatistic result = new UserStatistic();
         LocalDate today = LocalDate.now();
@@ -60,7 +60,7 @@ public class StatisticService {
         return result;
     }
 
-    @Cacheable(value = STATISTIC + ":" + STATISTIC_TOKEN_COST)
+    @Cacheable(value = STATISTIC + ":" + STATISTIC_TOKEN_COST, sync = true)
     public TokenCostStatistic calTokenCostStat() {
         Integer todayCost = userDayCostService.sumTodayCost();
         Integer currentMonthCost = userDayCostService.sumCurrentMonthCost();
@@ -70,7 +70,7 @@ public class StatisticService {
         return aiModelStat;
     }
 
-    @Cacheable(value = STATISTIC + ":" + STATISTIC_IMAGE_COST)
+    @Cacheable(value = STATISTIC + ":" + STATISTIC_IMAGE_COST, sync = true)
     public ImageCostStatistic calImageCostStat() {
         return ImageCostStatistic.builder()
                 .todayCost(drawService.sumTodayCost())
@@ -78,7 +78,7 @@ public class StatisticService {
                 .build();
     }
 
-    @Cacheable(value = STATISTIC + ":" + STATISTIC_KNOWLEDGE_BASE)
+    @Cacheable(value = STATISTIC + ":" + STATISTIC_KNOWLEDGE_BASE, sync = true)
     public KbStatistic calKbStat() {
         int kbTodayCreated = knowledgeBaseService.countTodayCreated();
         int kbTotal = knowledgeBaseService.countAllCreated();
@@ -97,7 +97,7 @@ public class StatisticService {
      *
      * @return
      */
-    @Cacheable(value = STATISTIC + ":" + STATISTIC_CONVERSATION)
+    @Cacheable(value = STATISTIC + ":" + STATISTIC_CONVERSATION, sync = true)
     public ConvStatistic calConvStatistic() {
         return ConvStatistic.builder()
                 .todayCreated(conversationService.countTodayCreated())
@@ -11,6 +11,7 @@ import com.moyz.adi.common.entity.SysConfig;
 import com.moyz.adi.common.enums.ErrorEnum;
 import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.AliyunOssHelper;
+import com.moyz.adi.common.helper.ConfigChangeHelper;
 import com.moyz.adi.common.mapper.SysConfigMapper;
 import com.moyz.adi.common.util.JsonUtil;
 import com.moyz.adi.common.util.LocalCache;
@@ -22,8 +23,11 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -32,35 +36,49 @@ public class SysConfigService extends ServiceImpl<SysConfigMapper, SysConfig> {
     @Resource
     private AliyunOssHelper aliyunOssHelper;
 
+    @Resource
+    private ConfigChangeHelper configChangeHelper;
+
+    /**
+     * 加载全部配置
+     */
     public void loadAndCache() {
-        List<SysConfig> configsFromDB = this.lambdaQuery().eq(SysConfig::getIsDeleted, false).list();
-        if (LocalCache.CONFIGS.isEmpty()) {
-            configsFromDB.forEach(item -> LocalCache.CONFIGS.put(item.getName(), item.getValue()));
+        reload(null);
+    }
+
+    /**
+     * 重新加载配置，生成新的快照后整体替换{@link LocalCache#CONFIGS}
+     *
+     * @param names 修改的配置名称，为null时重新加载全部
+     */
+    public synchronized void reload(Set<String> names) {
+        Map<String, String> configs;
+        if (null == names) {
+            configs = new HashMap<>();
         } else {
-            //remove deleted config
-            List<String> deletedKeys = new ArrayList<>();
-            LocalCache.CONFIGS.forEach((k, v) -> {
-                boolean deleted = configsFromDB.stream().noneMatch(sysConfig -> sysConfig.getName().equals(k));
-                if (deleted) {
-                    deletedKeys.add(k);
-                }
-            });
-            if (!deletedKeys.isEmpty()) {
-                deletedKeys.forEach(LocalCache.CONFIGS::remove);
-            }
-
-            //add or update config
-            for (SysConfig item : configsFromDB) {
-                String key = item.getName();
-                LocalCache.CONFIGS.put(key, item.getValue());
-            }
+            configs = new HashMap<>(LocalCache.CONFIGS);
+            names.forEach(configs::remove);
+        }
+        this.lambdaQuery()
+                .in(null != names, SysConfig::getName, names)
+                .eq(SysConfig::getIsDeleted, false)
+                .list()
+                .forEach(item -> configs.put(item.getName(), item.getValue()));
+        LocalCache.CONFIGS = Collections.unmodifiableMap(configs);
+
+        if (null == names || names.contains(AdiConstant.SysConfigKey.REQUEST_TEXT_RATE_LIMIT)) {
+            RequestRateLimit textRateLimit = JsonUtil.fromJson(configs.get(AdiConstant.SysConfigKey.REQUEST_TEXT_RATE_LIMIT), RequestRateLimit.class);
+            textRateLimit.setType(RequestRateLimit.TYPE_TEXT);
+            LocalCache.TEXT_RATE_LIMIT_CONFIG = textRateLimit;
+        }
+        if (null == names || names.contains(AdiConstant.SysConfigKey.REQUEST_IMAGE_RATE_LIMIT)) {
+            RequestRateLimit imageRateLimit = JsonUtil.fromJson(configs.get(AdiConstant.SysConfigKey.REQUEST_IMAGE_RATE_LIMIT), RequestRateLimit.class);
+            imageRateLimit.setType(RequestRateLimit.TYPE_IMAGE);
+            LocalCache.IMAGE_RATE_LIMIT_CONFIG = imageRateLimit;
+        }
+        if (null == names || names.contains(AdiConstant.SysConfigKey.STORAGE_LOCATION) || names.contains(AdiConstant.SysConfigKey.STORAGE_LOCATION_ALI_OSS)) {
+            aliyunOssHelper.reload();
         }
-        LocalCache.TEXT_RATE_LIMIT_CONFIG = JsonUtil.fromJson(LocalCache.CONFIGS.get(AdiConstant.SysConfigKey.REQUEST_TEXT_RATE_LIMIT), RequestRateLimit.class);
-        LocalCache.IMAGE_RATE_LIMIT_CONFIG = JsonUtil.fromJson(LocalCache.CONFIGS.get(AdiConstant.SysConfigKey.REQUEST_IMAGE_RATE_LIMIT), RequestRateLimit.class);
-        LocalCache.TEXT_RATE_LIMIT_CONFIG.setType(RequestRateLimit.TYPE_TEXT);
-        LocalCache.IMAGE_RATE_LIMIT_CONFIG.setType(RequestRateLimit.TYPE_IMAGE);
-
-        aliyunOssHelper.reload();
     }
 
     public void edit(SysConfigEditDto sysConfigDto) {
@@ -76,16 +94,28 @@ public class SysConfigService extends ServiceImpl<SysConfigMapper, SysConfig> {
         updateOne.setValue(sysConfigDto.getValue());
         baseMapper.updateById(updateOne);
 
-        loadAndCache();
+        reloadAndPublish(existOne.getName());
     }
 
     public void softDelete(Long id) {
+        SysConfig existOne = baseMapper.selectById(id);
+        if (null == existOne) {
+            throw new BaseException(ErrorEnum.A_DATA_NOT_FOUND);
+        }
         SysConfig sysConfig = new SysConfig();
         sysConfig.setIsDeleted(true);
         sysConfig.setId(id);
         baseMapper.updateById(sysConfig);
 
-        loadAndCache();
+        reloadAndPublish(existOne.getName());
+    }
+
+    /**
+     * 本实例立即生效，其他实例收到通知后重新加载该配置
+     */
+    private void reloadAndPublish(String name) {
+        reload(Set.of(name));
+        configChangeHelper.publish(ConfigChangeHelper.TYPE_SYS_CONFIG, List.of(name));
     }
 
     public int getConversationMaxNum() {
@@ -1,26 +1,48 @@
 package com.moyz.adi.common.service;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.common.collect.Lists;
 import com.moyz.adi.common.entity.User;
 import com.moyz.adi.common.entity.UserDayCost;
+import com.moyz.adi.common.helper.UserCostCounterHelper;
 import com.moyz.adi.common.mapper.UserDayCostMapper;
 import com.moyz.adi.common.util.LocalDateTimeUtil;
 import com.moyz.adi.common.vo.CostStat;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 用户每天的消耗
+ * <br/>开启{@code adi.user-cost.write-behind}时，消耗先在内存中按(用户, 日期, 是否免费额度)累加，
+ * 每{@code adi.user-cost.flush-interval-millis}毫秒批量upsert到adi_user_day_cost，停机时写入剩余部分；
+ * 额度检查读取的是实时累加的计数器({@link UserCostCounterHelper})，不受延迟写入的影响
+ */
 @Slf4j
 @Service
 public class UserDayCostService extends ServiceImpl<UserDayCostMapper, UserDayCost> {
 
-    @Lazy
+    private static final int FLUSH_BATCH_SIZE = 500;
+
     @Resource
-    private UserDayCostService self;
+    private UserCostCounterHelper userCostCounterHelper;
+
+    @Value("${adi.user-cost.write-behind:true}")
+    private boolean writeBehind;
+
+    /**
+     * 未写入数据库的消耗，value: [tokens, requestTimes, drawTimes]
+     */
+    private final Map<CostKey, int[]> pendingCosts = new ConcurrentHashMap<>();
 
     /**
      * Append token cost
@@ -34,26 +56,110 @@ public class UserDayCostService extends ServiceImpl<UserDayCostMapper, UserDayCo
         if (tokens <= 0) {
             return;
         }
-        UserDayCost userDayCost = getTodayCost(user, isFree);
-        UserDayCost saveOrUpdateInst = new UserDayCost();
-        if (null == userDayCost) {
-            saveOrUpdateInst.setUserId(user.getId());
-            saveOrUpdateInst.setDay(LocalDateTimeUtil.getToday());
-            saveOrUpdateInst.setTokens(tokens);
-            saveOrUpdateInst.setRequestTimes(1);
+        appendCost(user.getId(), isFree, tokens, 1, 0);
+    }
+
+    /**
+     * 增加一次绘图
+     *
+     * @param user   用户
+     * @param isFree 消耗的是否免费额度
+     */
+    public void appendDrawToUser(User user, boolean isFree) {
+        appendCost(user.getId(), isFree, 0, 0, 1);
+    }
+
+    private void appendCost(long userId, boolean isFree, int tokens, int requestTimes, int drawTimes) {
+        int today = LocalDateTimeUtil.getToday();
+        if (writeBehind) {
+            pendingCosts.merge(new CostKey(userId, today, isFree), new int[]{tokens, requestTimes, drawTimes}, UserDayCostService::sum);
         } else {
-            saveOrUpdateInst.setId(userDayCost.getId());
-            saveOrUpdateInst.setTokens(userDayCost.getTokens() + tokens);
-            saveOrUpdateInst.setRequestTimes(userDayCost.getRequestTimes() + 1);
+            //一条语句完成新增或累加，并发请求不会相互覆盖
+            baseMapper.upsertCost(userId, today, isFree, tokens, requestTimes, drawTimes);
         }
-        saveOrUpdateInst.setIsFree(isFree);
-        self.saveOrUpdate(saveOrUpdateInst);
+        userCostCounterHelper.incr(userId, isFree, today, tokens, requestTimes, drawTimes);
     }
 
+    /**
+     * 将内存中累加的消耗批量写入数据库<br/>
+     * 写入成功后才从内存中减去已写入的部分，写入期间{@link #costStatByUser}从数据库汇总时仍能加上这部分，不会少算；写入失败的部分留在内存等待下次写入
+     */
+    @Scheduled(initialDelayString = "${adi.user-cost.flush-interval-millis:2000}", fixedDelayString = "${adi.user-cost.flush-interval-millis:2000}")
+    public synchronized void flushPendingCosts() {
+        if (pendingCosts.isEmpty()) {
+            return;
+        }
+        List<UserDayCost> costs = new ArrayList<>();
+        for (Map.Entry<CostKey, int[]> entry : pendingCosts.entrySet()) {
+            //merge时总是生成新数组，这里拿到的是快照
+            int[] delta = entry.getValue();
+            UserDayCost cost = new UserDayCost();
+            cost.setUserId(entry.getKey().userId());
+            cost.setDay(entry.getKey().day());
+            cost.setIsFree(entry.getKey().isFree());
+            cost.setTokens(delta[0]);
+            cost.setRequestTimes(delta[1]);
+            cost.setDrawTimes(delta[2]);
+            costs.add(cost);
+        }
+        for (List<UserDayCost> batch : Lists.partition(costs, FLUSH_BATCH_SIZE)) {
+            try {
+                baseMapper.batchUpsertCost(batch);
+            } catch (Exception e) {
+                log.error("Flush user day cost error,size:{}", batch.size(), e);
+                continue;
+            }
+            for (UserDayCost cost : batch) {
+                int[] flushed = new int[]{cost.getTokens(), cost.getRequestTimes(), cost.getDrawTimes()};
+                pendingCosts.computeIfPresent(new CostKey(cost.getUserId(), cost.getDay(), cost.getIsFree()), (key, pending) -> {
+                    int[] rest = new int[]{pending[0] - flushed[0], pending[1] - flushed[1], pending[2] - flushed[2]};
+                    return rest[0] == 0 && rest[1] == 0 && rest[2] == 0 ? null : rest;
+                });
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushPendingCosts();
+        if (!pendingCosts.isEmpty()) {
+            log.error("User day cost lost on shutdown,size:{}", pendingCosts.size());
+        }
+    }
+
+    /**
+     * 用户当天及当月的消耗，优先从计数器读取，计数器不存在时从数据库汇总并写入计数器
+     *
+     * @param userId 用户id
+     * @param isFree 是否免费额度
+     * @return 消耗统计
+     */
     public CostStat costStatByUser(long userId, boolean isFree) {
+        int today = LocalDateTimeUtil.getToday();
+        CostStat result = userCostCounterHelper.get(userId, isFree, today);
+        if (null != result) {
+            return result;
+        }
+        result = sumCostStat(userId, isFree, today);
+        //加上本实例内存中尚未写入数据库的部分
+        int[] pending = pendingCosts.get(new CostKey(userId, today, isFree));
+        if (null != pending) {
+            result.setTextTokenCostByDay(result.getTextTokenCostByDay() + pending[0]);
+            result.setTextRequestTimesByDay(result.getTextRequestTimesByDay() + pending[1]);
+            result.setDrawTimesByDay(result.getDrawTimesByDay() + pending[2]);
+            result.setTextTokenCostByMonth(result.getTextTokenCostByMonth() + pending[0]);
+            result.setTextRequestTimesByMonth(result.getTextRequestTimesByMonth() + pending[1]);
+            result.setDrawTimesByMonth(result.getDrawTimesByMonth() + pending[2]);
+        }
+        userCostCounterHelper.seed(userId, isFree, today, result);
+        return result;
+    }
+
+    private CostStat sumCostStat(long userId, boolean isFree, int today) {
         CostStat result = new CostStat();
+        result.setDay(today);
+        result.setFree(isFree);
 
-        int today = LocalDateTimeUtil.getIntDay(LocalDateTime.now());
         int start = LocalDateTimeUtil.getIntDay(LocalDateTime.now().withDayOfMonth(1));
         int end = LocalDateTimeUtil.getIntDay(LocalDateTime.now().plusMonths(1).withDayOfMonth(1).minusDays(1));
 
@@ -71,7 +177,6 @@ public class UserDayCostService extends ServiceImpl<UserDayCostMapper, UserDayCo
                 result.setTextRequestTimesByDay(userDayCost.getRequestTimes());
                 result.setDrawTimesByDay(userDayCost.getDrawTimes());
             }
-            result.setFree(userDayCost.getIsFree());
         }
         return result;
     }
@@ -94,4 +199,11 @@ public class UserDayCostService extends ServiceImpl<UserDayCostMapper, UserDayCo
         int end = LocalDateTimeUtil.getIntDay(LocalDateTime.now().plusMonths(1).withDayOfMonth(1).minusDays(1));
         return baseMapper.sumCostByDayPeriod(start, end).intValue();
     }
+
+    private static int[] sum(int[] a, int[] b) {
+        return new int[]{a[0] + b[0], a[1] + b[1], a[2] + b[2]};
+    }
+
+    private record CostKey(long userId, int day, boolean isFree) {
+    }
 }
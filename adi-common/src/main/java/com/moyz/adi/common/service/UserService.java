@@ -13,6 +13,7 @@ import com.moyz.adi.common.enums.ErrorEnum;
 import com.moyz.adi.common.enums.UserStatusEnum;
 import com.moyz.adi.common.exception.BaseException;
 import com.moyz.adi.common.helper.AdiMailSender;
+import com.moyz.adi.common.helper.UserSessionHelper;
 import com.moyz.adi.common.mapper.UserMapper;
 import com.moyz.adi.common.util.*;
 import com.moyz.adi.common.vo.CostStat;
@@ -56,6 +57,9 @@ public class UserService extends ServiceImpl<UserMapper, User> {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private UserSessionHelper userSessionHelper;
+
     @Resource
     private ConversationService conversationService;
 
@@ -148,6 +152,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
         updateUser.setPassword(BCrypt.hashpw(AdiConstant.DEFAULT_PASSWORD, BCrypt.gensalt()));
         baseMapper.updateById(updateUser);
         stringRedisTemplate.delete(key);
+        userSessionHelper.removeByUserId(updateUser.getId());
     }
 
     /**
@@ -157,7 +162,8 @@ public class UserService extends ServiceImpl<UserMapper, User> {
      * @param newPassword 新密码|new password
      */
     public void modifyPassword(String oldPassword, String newPassword) {
-        User user = ThreadContext.getExistCurrentUser();
+        //会话中不保存密码，从数据库读取
+        User user = baseMapper.selectById(ThreadContext.getExistCurrentUser().getId());
 
         if (!BCrypt.checkpw(oldPassword, user.getPassword())) {
             throw new BaseException(A_OLD_PASSWORD_INVALID);
@@ -168,6 +174,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
         updateUser.setId(user.getId());
         updateUser.setPassword(hashed);
         baseMapper.updateById(updateUser);
+        userSessionHelper.removeByUserId(user.getId());
     }
 
     /**
@@ -226,6 +233,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
         updateUser.setId(user.getId());
         updateUser.setUserStatus(UserStatusEnum.FREEZE);
         baseMapper.updateById(updateUser);
+        userSessionHelper.removeByUserId(user.getId());
     }
 
     /**
@@ -245,6 +253,12 @@ public class UserService extends ServiceImpl<UserMapper, User> {
             editUser.setPassword(null);
         }
         baseMapper.updateById(editUser);
+        //修改密码、状态或管理员权限后，已登录的会话需重新登录
+        boolean statusChanged = null != userEditReq.getUserStatus() && userEditReq.getUserStatus() != user.getUserStatus();
+        boolean adminChanged = null != userEditReq.getIsAdmin() && !userEditReq.getIsAdmin().equals(user.getIsAdmin());
+        if (StringUtils.isNotBlank(userEditReq.getPassword()) || statusChanged || adminChanged) {
+            userSessionHelper.removeByUserId(user.getId());
+        }
     }
 
     /**
@@ -399,8 +413,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
             log.warn("logout token is null");
             return;
         }
-        String tokenKey = MessageFormat.format(USER_TOKEN, token);
-        stringRedisTemplate.delete(tokenKey);
+        userSessionHelper.remove(token);
     }
 
     /**
@@ -428,12 +441,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
         if (user.getQuotaByImageMonthly() == 0) {
             user.setQuotaByImageMonthly(Integer.parseInt(LocalCache.CONFIGS.get(AdiConstant.SysConfigKey.QUOTA_BY_IMAGE_MONTHLY)));
         }
-        String token = UuidUtil.createShort();
-        String tokenKey = MessageFormat.format(USER_TOKEN, token);
-        String jsonUser = JsonUtil.toJson(user);
-        log.info("jsonUser:{}", jsonUser);
-        stringRedisTemplate.opsForValue().set(tokenKey, jsonUser, AdiConstant.USER_TOKEN_EXPIRE, TimeUnit.HOURS);
-        return token;
+        return userSessionHelper.create(user);
     }
 
     /**
@@ -454,7 +462,7 @@ public class UserService extends ServiceImpl<UserMapper, User> {
      * @param id 用户ID|user ID
      * @return 用户|user
      */
-    @Cacheable(cacheNames = USER_INFO, condition = "#id>0", key = "#p0")
+    @Cacheable(cacheNames = USER_INFO, condition = "#id>0", key = "#p0", sync = true)
     public User getByUserId(Long id) {
         return ChainWrappers.lambdaQueryChain(baseMapper).eq(User::getId, id).one();
     }
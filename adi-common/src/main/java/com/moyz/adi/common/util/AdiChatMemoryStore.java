@@ -0,0 +1,278 @@
+package com.moyz.adi.common.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messageFromJson;
+import static dev.langchain4j.data.message.ChatMessageDeserializer.messagesFromJson;
+import static dev.langchain4j.data.message.ChatMessageSerializer.messageToJson;
+import static org.mapdb.Serializer.BYTE_ARRAY;
+import static org.mapdb.Serializer.STRING;
+
+/**
+ * 对话记忆存储
+ * <ul>
+ *     <li>读写都在内存中进行，修改过的对话由后台线程每{@code adi.chat-memory.flush-interval-millis}毫秒批量写入MapDB并只commit一次</li>
+ *     <li>超过{@code adi.chat-memory.idle-minutes}分钟未访问且已写入MapDB的对话从内存中移除，再次访问时从MapDB加载</li>
+ *     <li>MapDB中以二进制格式保存，旧版本以JSON保存的数据在首次访问时迁移</li>
+ * </ul>
+ * 进程异常退出时最多丢失最近一个写入周期内的修改
+ */
+@Slf4j
+public class AdiChatMemoryStore implements ChatMemoryStore {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte TYPE_USER = 1;
+    private static final byte TYPE_AI = 2;
+    /**
+     * 带图片、工具调用等无法用简单格式表示的消息，以JSON保存
+     */
+    private static final byte TYPE_JSON = 0;
+
+    private static volatile AdiChatMemoryStore singleton;
+
+    private final DB db;
+
+    /**
+     * 二进制格式的对话记忆
+     */
+    private final Map<String, byte[]> map;
+
+    /**
+     * 旧版本JSON格式的对话记忆，首次访问时迁移到{@link #map}
+     */
+    private final Map<String, String> legacyMap;
+
+    private final Map<String, HotEntry> hotEntries = new ConcurrentHashMap<>();
+
+    private final long idleMillis;
+
+    private AdiChatMemoryStore() {
+        String memoryDir = SpringUtil.getProperty("local.chat-memory");
+        long flushIntervalMillis = NumberUtils.toLong(SpringUtil.getProperty("adi.chat-memory.flush-interval-millis"), 1000);
+        idleMillis = TimeUnit.MINUTES.toMillis(NumberUtils.toLong(SpringUtil.getProperty("adi.chat-memory.idle-minutes"), 30));
+        log.info("chat memory path:{},flushIntervalMillis:{},idleMillis:{}", memoryDir, flushIntervalMillis, idleMillis);
+        db = DBMaker.fileDB(memoryDir + "chat-memory.db").transactionEnable().make();
+        map = db.hashMap("messages_v2", STRING, BYTE_ARRAY).createOrOpen();
+        legacyMap = db.hashMap("messages", STRING, STRING).createOrOpen();
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("chat-memory-flush-%d").setDaemon(true).build()
+        );
+        scheduler.scheduleWithFixedDelay(this::flushAndEvict, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.shutdown();
+            flush();
+            db.close();
+        }, "chat-memory-shutdown"));
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        HotEntry entry = hotEntries.computeIfAbsent((String) memoryId, this::load);
+        entry.lastAccessTime = System.currentTimeMillis();
+        return new ArrayList<>(entry.messages);
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        //AiMessage in first position is not allow
+        if (messages.size() > 0 && messages.get(0) instanceof AiMessage) {
+            messages.remove(0);
+        }
+        //Filter out the available messages.(UserMessage,AiMessage)
+        List<ChatMessage> availableMessage = new ArrayList<>();
+        for (ChatMessage chatMessage : messages) {
+            if (!(chatMessage instanceof SystemMessage)) {
+                availableMessage.add(chatMessage);
+            }
+        }
+        hotEntries.compute((String) memoryId, (key, entry) -> {
+            HotEntry newEntry = new HotEntry(Collections.unmodifiableList(availableMessage));
+            newEntry.dirty = true;
+            return newEntry;
+        });
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        hotEntries.compute((String) memoryId, (key, entry) -> {
+            HotEntry newEntry = new HotEntry(Collections.emptyList());
+            newEntry.dirty = true;
+            newEntry.deleted = true;
+            return newEntry;
+        });
+    }
+
+    private HotEntry load(String memoryId) {
+        byte[] bytes = map.get(memoryId);
+        if (null != bytes) {
+            return new HotEntry(decode(bytes));
+        }
+        String json = legacyMap.get(memoryId);
+        if (null == json) {
+            return new HotEntry(Collections.emptyList());
+        }
+        //迁移到二进制格式，随下一次写入一起commit
+        HotEntry entry = new HotEntry(Collections.unmodifiableList(messagesFromJson(json)));
+        entry.dirty = true;
+        return entry;
+    }
+
+    private void flushAndEvict() {
+        try {
+            flush();
+            evictIdle();
+        } catch (Exception e) {
+            log.error("flush chat memory error", e);
+        }
+    }
+
+    /**
+     * 将修改过的对话写入MapDB，所有修改共用一次commit
+     */
+    private synchronized void flush() {
+        int count = 0;
+        for (Map.Entry<String, HotEntry> item : hotEntries.entrySet()) {
+            HotEntry entry = item.getValue();
+            if (!entry.dirty) {
+                continue;
+            }
+            //先清除标记，写入期间如有新的修改会替换为新的entry，下一个周期再写入
+            entry.dirty = false;
+            if (entry.deleted) {
+                map.remove(item.getKey());
+                hotEntries.remove(item.getKey(), entry);
+            } else {
+                map.put(item.getKey(), encode(entry.messages));
+            }
+            legacyMap.remove(item.getKey());
+            count++;
+        }
+        if (count > 0) {
+            db.commit();
+            log.debug("flush chat memory,count:{}", count);
+        }
+    }
+
+    private void evictIdle() {
+        long expireTime = System.currentTimeMillis() - idleMillis;
+        hotEntries.entrySet().removeIf(item -> !item.getValue().dirty && item.getValue().lastAccessTime < expireTime);
+    }
+
+    private static byte[] encode(List<ChatMessage> messages) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(messages.size());
+            for (ChatMessage message : messages) {
+                if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+                    out.writeByte(TYPE_USER);
+                    writeString(out, userMessage.name());
+                    writeString(out, userMessage.singleText());
+                } else if (message instanceof AiMessage aiMessage && !aiMessage.hasToolExecutionRequests()) {
+                    out.writeByte(TYPE_AI);
+                    writeString(out, aiMessage.text());
+                } else {
+                    out.writeByte(TYPE_JSON);
+                    writeString(out, messageToJson(message));
+                }
+            }
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<ChatMessage> decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                log.warn("unknown chat memory format version:{}", version);
+                return Collections.emptyList();
+            }
+            int size = in.readInt();
+            List<ChatMessage> messages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte type = in.readByte();
+                if (type == TYPE_USER) {
+                    String name = readString(in);
+                    String text = readString(in);
+                    messages.add(null == name ? UserMessage.from(text) : UserMessage.from(name, text));
+                } else if (type == TYPE_AI) {
+                    messages.add(AiMessage.from(readString(in)));
+                } else {
+                    messages.add(messageFromJson(readString(in)));
+                }
+            }
+            return Collections.unmodifiableList(messages);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static AdiChatMemoryStore getSingleton() {
+        if (null == singleton) {
+            synchronized (AdiChatMemoryStore.class) {
+                if (null == singleton) {
+                    singleton = new AdiChatMemoryStore();
+                }
+            }
+        }
+        return singleton;
+    }
+
+    private static class HotEntry {
+        private final List<ChatMessage> messages;
+        private volatile long lastAccessTime = System.currentTimeMillis();
+        private volatile boolean dirty;
+        private volatile boolean deleted;
+
+        HotEntry(List<ChatMessage> messages) {
+            this.messages = messages;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.moyz.adi.common.util;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.*;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * 把langchain4j的Filter转换成向量表的where语句
+ * <br/>{typedColumns}中的key（如kb_uuid、kb_item_uuid）直接使用同名的独立列（有B-tree索引），其他key使用metadata ->> 'key'
+ */
+public class AdiPgVectorFilterMapper {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[a-zA-Z0-9_]+$");
+
+    static final Map<Class<?>, String> SQL_TYPE_MAP = Stream.of(
+                    new SimpleEntry<>(Integer.class, "int"),
+                    new SimpleEntry<>(Long.class, "bigint"),
+                    new SimpleEntry<>(Float.class, "float"),
+                    new SimpleEntry<>(Double.class, "float8"),
+                    new SimpleEntry<>(String.class, "text"),
+                    new SimpleEntry<>(UUID.class, "uuid"),
+                    new SimpleEntry<>(Boolean.class, "boolean"))
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+    private final String metadataColumn;
+
+    private final Set<String> typedColumns;
+
+    public AdiPgVectorFilterMapper(String metadataColumn, Set<String> typedColumns) {
+        this.metadataColumn = metadataColumn;
+        this.typedColumns = typedColumns;
+    }
+
+    public String map(Filter filter) {
+        if (filter instanceof IsEqualTo filterInst) {
+            return format("%s = %s", formatKey(filterInst.key(), filterInst.comparisonValue()), formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsNotEqualTo filterInst) {
+            String key = formatKey(filterInst.key(), filterInst.comparisonValue());
+            return format("(%s is null or %s != %s)", key, key, formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsGreaterThan filterInst) {
+            return format("%s > %s", formatKey(filterInst.key(), filterInst.comparisonValue()), formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsGreaterThanOrEqualTo filterInst) {
+            return format("%s >= %s", formatKey(filterInst.key(), filterInst.comparisonValue()), formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsLessThan filterInst) {
+            return format("%s < %s", formatKey(filterInst.key(), filterInst.comparisonValue()), formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsLessThanOrEqualTo filterInst) {
+            return format("%s <= %s", formatKey(filterInst.key(), filterInst.comparisonValue()), formatValue(filterInst.key(), filterInst.comparisonValue()));
+        } else if (filter instanceof IsIn filterInst) {
+            return format("%s in %s", formatKeyAsString(filterInst.key()), formatValuesAsString(filterInst.comparisonValues()));
+        } else if (filter instanceof IsNotIn filterInst) {
+            String key = formatKeyAsString(filterInst.key());
+            return format("(%s is null or %s not in %s)", key, key, formatValuesAsString(filterInst.comparisonValues()));
+        } else if (filter instanceof And filterInst) {
+            return format("(%s and %s)", map(filterInst.left()), map(filterInst.right()));
+        } else if (filter instanceof Not filterInst) {
+            return format("not(%s)", map(filterInst.expression()));
+        } else if (filter instanceof Or filterInst) {
+            return format("(%s or %s)", map(filterInst.left()), map(filterInst.right()));
+        } else {
+            throw new UnsupportedOperationException("Unsupported filter type: " + filter.getClass().getName());
+        }
+    }
+
+    private String formatKey(String key, Object value) {
+        checkKey(key);
+        if (typedColumns.contains(key)) {
+            return key;
+        }
+        return format("(%s ->> '%s')::%s", metadataColumn, key, SQL_TYPE_MAP.getOrDefault(value.getClass(), "text"));
+    }
+
+    private String formatKeyAsString(String key) {
+        checkKey(key);
+        if (typedColumns.contains(key)) {
+            return key;
+        }
+        return format("(%s ->> '%s')", metadataColumn, key);
+    }
+
+    /**
+     * 独立列均为text类型，按字符串比较
+     */
+    private String formatValue(String key, Object value) {
+        if (typedColumns.contains(key) || value instanceof String || value instanceof UUID) {
+            return quote(value.toString());
+        }
+        return value.toString();
+    }
+
+    private String formatValuesAsString(Collection<?> values) {
+        return "(" + values.stream().map(v -> quote(v.toString())).collect(Collectors.joining(",")) + ")";
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static void checkKey(String key) {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid metadata key: " + key);
+        }
+    }
+}
@@ -7,4 +7,14 @@ public class AdiStringUtil {
         org.jsoup.nodes.Document doc = Jsoup.parse(str);
         return doc.text();
     }
+
+    /**
+     * 字符数(按Unicode码点计算)，与PostgreSQL的char_length()一致，emoji等补充平面字符计为1个字符
+     *
+     * @param str 字符串，可为null
+     * @return 字符数
+     */
+    public static int charCount(String str) {
+        return null == str ? 0 : str.codePointCount(0, str.length());
+    }
 }
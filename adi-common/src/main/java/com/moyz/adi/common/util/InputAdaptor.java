@@ -1,5 +1,8 @@
 package com.moyz.adi.common.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.moyz.adi.common.vo.InputAdaptorMsg;
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.model.openai.OpenAiTokenizer;
@@ -8,11 +11,16 @@ import dev.langchain4j.rag.content.Content;
 import dev.langchain4j.rag.query.Metadata;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import static com.moyz.adi.common.cosntant.AdiConstant.MetadataKey.TOKEN_COUNT;
+
 import static dev.langchain4j.model.openai.OpenAiModelName.GPT_3_5_TURBO;
 
 /**
@@ -21,13 +29,50 @@ import static dev.langchain4j.model.openai.OpenAiModelName.GPT_3_5_TURBO;
 @Slf4j
 public class InputAdaptor {
 
+    private static final String TOKENIZER_ID = "openai:" + GPT_3_5_TURBO;
+
     private static OpenAiTokenizer tokenizer = new OpenAiTokenizer(GPT_3_5_TURBO);
 
+    /**
+     * 文本token数缓存，key: 分词器标识 + 文本的hash
+     * <br/>系统提示词、历史记录、召回文档在同一个提问的多个步骤及后续的提问中会被重复计算
+     */
+    private static final Cache<String, Integer> TOKEN_COUNT_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * 计算文本的token数，优先从缓存中获取
+     *
+     * @param text 文本
+     * @return token数
+     */
+    public static int countTokens(String text) {
+        if (null == text || text.isEmpty()) {
+            return 0;
+        }
+        String key = TOKENIZER_ID + ":" + text.length() + ":" + Hashing.murmur3_128().hashString(text, StandardCharsets.UTF_8);
+        try {
+            return TOKEN_COUNT_CACHE.get(key, () -> tokenizer.estimateTokenCountInText(text));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * 召回文档的token数，入库时已计算的直接使用
+     */
+    private static int countTokens(Content content) {
+        Integer tokenCount = content.textSegment().metadata().getInteger(TOKEN_COUNT);
+        return null != tokenCount ? tokenCount : countTokens(content.textSegment().text());
+    }
+
     public static InputAdaptorMsg isQuestionValid(String userQuestion, int maxInputTokens) {
         InputAdaptorMsg result = new InputAdaptorMsg();
         result.setTokenTooMuch(InputAdaptorMsg.TOKEN_TOO_MUCH_NOT);
 
-        int questionLength = tokenizer.estimateTokenCountInText(userQuestion);
+        int questionLength = countTokens(userQuestion);
         result.setUserQuestionTokenCount(questionLength);
         if (questionLength > maxInputTokens) {
             log.warn("用户问题过长,已超过{}个token", maxInputTokens);
@@ -61,7 +106,7 @@ public class InputAdaptor {
         int tokenTooMuch = InputAdaptorMsg.TOKEN_TOO_MUCH_NOT;
         for (int i = metadata.chatMemory().size() - 1; i >= 0; i--) {
             String memory = metadata.chatMemory().get(i).text();
-            int currentMemoryTokenCount = tokenizer.estimateTokenCountInText(memory);
+            int currentMemoryTokenCount = countTokens(memory);
             if (inputAdaptorMsg.getUserQuestionTokenCount() + allMemoryTokenCount + currentMemoryTokenCount < maxInputTokens) {
                 allMemoryTokenCount += currentMemoryTokenCount;
                 validMemories.add(metadata.chatMemory().get(i));
@@ -98,7 +143,7 @@ public class InputAdaptor {
         int allRetrievedDocsTokenCount = 0;
         List<Content> validContents = new ArrayList<>();
         for (Content content : contents) {
-            int currentDocTokenCount = tokenizer.estimateTokenCountInText(content.textSegment().text());
+            int currentDocTokenCount = countTokens(content);
             if (questionLength + allRetrievedDocsTokenCount + currentDocTokenCount < maxInputTokens) {
                 allRetrievedDocsTokenCount += currentDocTokenCount;
                 validContents.add(content);
@@ -125,7 +170,7 @@ public class InputAdaptor {
         result.add(latestMessage);
         int allTokenCount = 0;
         if (latestMessage instanceof UserMessage userMessage && userMessage.contents().get(0) instanceof TextContent textContent) {
-            allTokenCount += tokenizer.estimateTokenCountInText(textContent.text());
+            allTokenCount += countTokens(textContent.text());
         }
         for (int i = messageSize - 1 - 1; i >= 0; i--) {
             log.info("messageSize i:{}", i);
@@ -136,7 +181,7 @@ public class InputAdaptor {
             } else {
 
                 log.info("messageSize allTokenCount:{}", allTokenCount);
-                int currentMessageTokenCount = tokenizer.estimateTokenCountInText(curMsg.text());
+                int currentMessageTokenCount = countTokens(curMsg.text());
                 if (allTokenCount + currentMessageTokenCount < maxInputTokens) {
                     allTokenCount += currentMessageTokenCount;
                     result.add(curMsg);
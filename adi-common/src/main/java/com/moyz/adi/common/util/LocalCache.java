@@ -3,15 +3,18 @@ package com.moyz.adi.common.util;
 import com.moyz.adi.common.entity.AiModel;
 import com.moyz.adi.common.vo.RequestRateLimit;
 
+import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 本地缓存的配置，均为不可修改的快照，修改时整体替换
+ */
 public class LocalCache {
-    public static final Map<String, String> CONFIGS = new ConcurrentHashMap<>();
+    public static volatile Map<String, String> CONFIGS = Collections.emptyMap();
 
-    public static RequestRateLimit TEXT_RATE_LIMIT_CONFIG;
+    public static volatile RequestRateLimit TEXT_RATE_LIMIT_CONFIG;
 
-    public static RequestRateLimit IMAGE_RATE_LIMIT_CONFIG;
+    public static volatile RequestRateLimit IMAGE_RATE_LIMIT_CONFIG;
 
-    public static Map<Long, AiModel> MODEL_ID_TO_OBJ = new ConcurrentHashMap<>();
+    public static volatile Map<Long, AiModel> MODEL_ID_TO_OBJ = Collections.emptyMap();
 }
@@ -0,0 +1,29 @@
+package com.moyz.adi.common.vo;
+
+import lombok.Data;
+
+/**
+ * 提问前的检查数据，由一次查询获取
+ */
+@Data
+public class AskPreflight {
+
+    /**
+     * 当前用户未删除的对话数量
+     */
+    private long conversationCount;
+
+    /**
+     * 对话id，对话不存在或不属于当前用户时为空
+     */
+    private Long conversationId;
+    private Boolean conversationDeleted;
+    private String aiSystemMessage;
+    private Boolean understandContextEnable;
+    private Double llmTemperature;
+
+    /**
+     * 重新生成答案时原问题的内容
+     */
+    private String regeneratePrompt;
+}
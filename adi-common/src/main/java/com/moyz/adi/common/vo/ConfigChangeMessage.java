@@ -0,0 +1,28 @@
+package com.moyz.adi.common.vo;
+
+import lombok.Data;
+
+import java.util.Set;
+
+/**
+ * 配置变更通知
+ */
+@Data
+public class ConfigChangeMessage {
+    /**
+     * 发送通知的实例
+     */
+    private String instanceId;
+    /**
+     * 配置类型，如sys-config、ai-model
+     */
+    private String type;
+    /**
+     * 修改后的版本号
+     */
+    private Long version;
+    /**
+     * 修改的配置项（系统配置名称或模型id），为空表示全部
+     */
+    private Set<String> keys;
+}
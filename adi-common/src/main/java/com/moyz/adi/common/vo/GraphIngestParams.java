@@ -7,6 +7,7 @@ import lombok.Builder;
 import lombok.Data;
 
 import java.util.List;
+import java.util.function.BiConsumer;
 
 @Data
 @Builder
@@ -18,4 +19,24 @@ public class GraphIngestParams {
     private List<String> identifyColumns;
     private List<String> appendColumns;
     private boolean isFreeToken;
+
+    /**
+     * 抽取使用的模型id，模型变化后已有的抽取结果不再复用
+     */
+    private Long aiModelId;
+
+    /**
+     * 是否继续中断的图谱化(从断点继续)，否则删除已有的断点重新抽取
+     */
+    private boolean resume;
+
+    /**
+     * 进度回调(已写入图谱的文本段数量,文本段总数)，可为空
+     */
+    private BiConsumer<Integer, Integer> progressConsumer;
+
+    /**
+     * 每批写入图谱后回调(新增的顶点数量,新增的边数量)，可为空
+     */
+    private BiConsumer<Integer, Integer> graphAddedConsumer;
 }
@@ -0,0 +1,26 @@
+package com.moyz.adi.common.vo;
+
+import lombok.Data;
+
+/**
+ * 知识库统计数据的增量
+ */
+@Data
+public class KbStatisticDelta {
+
+    public static final String ITEM_COUNT = "itemCount";
+    public static final String CHAR_COUNT = "charCount";
+    public static final String EMBEDDING_COUNT = "embeddingCount";
+    public static final String GRAPH_VERTEX_COUNT = "graphVertexCount";
+    public static final String GRAPH_EDGE_COUNT = "graphEdgeCount";
+
+    private long itemCount;
+    private long charCount;
+    private long embeddingCount;
+    private long graphVertexCount;
+    private long graphEdgeCount;
+
+    public boolean isEmpty() {
+        return itemCount == 0 && charCount == 0 && embeddingCount == 0 && graphVertexCount == 0 && graphEdgeCount == 0;
+    }
+}
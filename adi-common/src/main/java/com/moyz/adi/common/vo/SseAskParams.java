@@ -31,4 +31,9 @@ public class SseAskParams {
      * 最终提交给llm的信息，必填
      */
     private AssistantChatParams assistantChatParams;
+
+    /**
+     * 本次提问所有LLM请求消耗的token数
+     */
+    private TokenUsageAccumulator tokenUsage = new TokenUsageAccumulator();
 }
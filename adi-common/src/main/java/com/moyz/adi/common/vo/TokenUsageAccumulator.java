@@ -0,0 +1,31 @@
+package com.moyz.adi.common.vo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次提问过程中所有LLM请求（查询压缩、图谱实体提取、工具调用、最终回答等）消耗的token数
+ * <br/>随{@link SseAskParams}在整个提问流程中传递，持久化时直接读取
+ */
+public class TokenUsageAccumulator {
+
+    private final AtomicInteger inputTokens = new AtomicInteger();
+
+    private final AtomicInteger outputTokens = new AtomicInteger();
+
+    public void add(int inputTokenCount, int outputTokenCount) {
+        inputTokens.addAndGet(inputTokenCount);
+        outputTokens.addAndGet(outputTokenCount);
+    }
+
+    public int getInputTokens() {
+        return inputTokens.get();
+    }
+
+    public int getOutputTokens() {
+        return outputTokens.get();
+    }
+
+    public int getTotalTokens() {
+        return inputTokens.get() + outputTokens.get();
+    }
+}
@@ -0,0 +1,65 @@
+package com.moyz.adi.common.vo;
+
+import com.moyz.adi.common.entity.User;
+import com.moyz.adi.common.enums.UserStatusEnum;
+import lombok.Data;
+
+/**
+ * 登录会话中保存的用户信息，不包含密码及时间等请求处理中用不到的字段
+ */
+@Data
+public class UserSession {
+    private Long id;
+    private String uuid;
+    private String name;
+    private String email;
+    private Boolean isAdmin;
+    private UserStatusEnum userStatus;
+    private Integer understandContextMsgPairNum;
+    private Integer quotaByTokenDaily;
+    private Integer quotaByTokenMonthly;
+    private Integer quotaByRequestDaily;
+    private Integer quotaByRequestMonthly;
+    private Integer quotaByImageDaily;
+    private Integer quotaByImageMonthly;
+
+    public static UserSession from(User user) {
+        UserSession session = new UserSession();
+        session.setId(user.getId());
+        session.setUuid(user.getUuid());
+        session.setName(user.getName());
+        session.setEmail(user.getEmail());
+        session.setIsAdmin(user.getIsAdmin());
+        session.setUserStatus(user.getUserStatus());
+        session.setUnderstandContextMsgPairNum(user.getUnderstandContextMsgPairNum());
+        session.setQuotaByTokenDaily(user.getQuotaByTokenDaily());
+        session.setQuotaByTokenMonthly(user.getQuotaByTokenMonthly());
+        session.setQuotaByRequestDaily(user.getQuotaByRequestDaily());
+        session.setQuotaByRequestMonthly(user.getQuotaByRequestMonthly());
+        session.setQuotaByImageDaily(user.getQuotaByImageDaily());
+        session.setQuotaByImageMonthly(user.getQuotaByImageMonthly());
+        return session;
+    }
+
+    /**
+     * 每次请求生成新的User对象，避免请求间共享可修改的对象
+     */
+    public User toUser() {
+        User user = new User();
+        user.setId(id);
+        user.setUuid(uuid);
+        user.setName(name);
+        user.setEmail(email);
+        user.setIsAdmin(isAdmin);
+        user.setUserStatus(userStatus);
+        user.setUnderstandContextMsgPairNum(understandContextMsgPairNum);
+        user.setQuotaByTokenDaily(quotaByTokenDaily);
+        user.setQuotaByTokenMonthly(quotaByTokenMonthly);
+        user.setQuotaByRequestDaily(quotaByRequestDaily);
+        user.setQuotaByRequestMonthly(quotaByRequestMonthly);
+        user.setQuotaByImageDaily(quotaByImageDaily);
+        user.setQuotaByImageMonthly(quotaByImageMonthly);
+        user.setIsDeleted(false);
+        return user;
+    }
+}
@@ -429,6 +429,9 @@ CREATE TRIGGER trigger_user_day_cost_update_time
     FOR EACH ROW
 EXECUTE PROCEDURE update_modified_column();
 
+-- 已有数据库需先合并重复的(user_id, day, is_free)记录，见upgrade.sql
+create unique index udx_user_day_cost on adi_user_day_cost (user_id, day, is_free);
+
 create table adi_knowledge_base
 (
     id                    bigserial primary key,
@@ -449,6 +452,9 @@ create table adi_knowledge_base
     star_count            int           default 0                 not null,
     item_count            int           default 0                 not null,
     embedding_count       int           default 0                 not null,
+    char_count            bigint        default 0                 not null,
+    graph_vertex_count    int           default 0                 not null,
+    graph_edge_count      int           default 0                 not null,
     create_time           timestamp     default CURRENT_TIMESTAMP not null,
     update_time           timestamp     default CURRENT_TIMESTAMP not null,
     is_deleted            boolean       default false             not null
@@ -468,6 +474,9 @@ comment on column adi_knowledge_base.query_llm_temperature is '用户查询时
 comment on column adi_knowledge_base.star_count is '点赞数 | Number of Likes';
 comment on column adi_knowledge_base.item_count is '知识点数量 | Number of Knowledge Items';
 comment on column adi_knowledge_base.embedding_count is '向量数 | Number of Embeddings';
+comment on column adi_knowledge_base.char_count is '知识点内容的字符数 | Number of Characters of Knowledge Items';
+comment on column adi_knowledge_base.graph_vertex_count is '图谱顶点数 | Number of Graph Vertices';
+comment on column adi_knowledge_base.graph_edge_count is '图谱边数 | Number of Graph Edges';
 comment on column adi_knowledge_base.owner_id is '所属人id | Owner ID';
 comment on column adi_knowledge_base.owner_uuid is '所属人uuid | Owner UUID';
 comment on column adi_knowledge_base.owner_name is '所属人名称 | Owner Name';
@@ -608,25 +617,67 @@ create trigger trigger_kb_qa_ref_update_time
     for each row
 execute procedure update_modified_column();
 
+-- 向量表，与PgVectorEmbeddingStore创建的表结构一致，常用的metadata字段生成为独立列并建立B-tree索引
+create table adi_knowledge_base_embedding
+(
+    embedding_id uuid primary key,
+    embedding    vector(384),
+    text         text null,
+    metadata     json null,
+    kb_uuid      text generated always as ((metadata ->> 'kb_uuid')) stored,
+    kb_item_uuid text generated always as ((metadata ->> 'kb_item_uuid')) stored
+);
+
+create index adi_knowledge_base_embedding_kb_uuid_idx on adi_knowledge_base_embedding (kb_uuid);
+create index adi_knowledge_base_embedding_kb_item_uuid_idx on adi_knowledge_base_embedding (kb_item_uuid);
+
+comment on table adi_knowledge_base_embedding is '知识库-向量 | Knowledge Base - Embedding';
+comment on column adi_knowledge_base_embedding.kb_uuid is '所属知识库uuid(由metadata生成) | adi_knowledge_base UUID (generated from metadata)';
+comment on column adi_knowledge_base_embedding.kb_item_uuid is '所属知识点uuid(由metadata生成) | adi_knowledge_base_item UUID (generated from metadata)';
+
+create table adi_ai_search_embedding
+(
+    embedding_id uuid primary key,
+    embedding    vector(384),
+    text         text null,
+    metadata     json null,
+    search_uuid  text generated always as ((metadata ->> 'search_uuid')) stored
+);
+
+create index adi_ai_search_embedding_search_uuid_idx on adi_ai_search_embedding (search_uuid);
+
+comment on table adi_ai_search_embedding is '搜索-向量 | Search - Embedding';
+comment on column adi_ai_search_embedding.search_uuid is '所属搜索记录uuid(由metadata生成) | adi_ai_search_record UUID (generated from metadata)';
+
 -- Graph RAG
 create table adi_knowledge_base_graph_segment
 (
-    id           bigserial primary key,
-    uuid         varchar(32) default ''                not null,
-    kb_uuid      varchar(32) default ''                not null,
-    kb_item_uuid varchar(32) default ''                not null,
-    remark       text        default ''                not null,
-    user_id      bigint      default 0                 not null,
-    create_time  timestamp   default CURRENT_TIMESTAMP not null,
-    update_time  timestamp   default CURRENT_TIMESTAMP not null,
-    is_deleted   boolean     default false             not null
+    id             bigserial primary key,
+    uuid           varchar(32) default ''                not null,
+    kb_uuid        varchar(32) default ''                not null,
+    kb_item_uuid   varchar(32) default ''                not null,
+    remark         text        default ''                not null,
+    segment_index  int         default -1                not null,
+    extract_status int         default 1                 not null,
+    llm_response   text        default ''                not null,
+    ai_model_id    bigint      default 0                 not null,
+    user_id        bigint      default 0                 not null,
+    create_time    timestamp   default CURRENT_TIMESTAMP not null,
+    update_time    timestamp   default CURRENT_TIMESTAMP not null,
+    is_deleted     boolean     default false             not null
 );
 
+create index idx_kb_graph_segment_kb_item_uuid on adi_knowledge_base_graph_segment (kb_item_uuid);
+
 comment on table adi_knowledge_base_graph_segment is '知识库-图谱-文本块 | Knowledge Base - Graph Segment';
 comment on column adi_knowledge_base_graph_segment.uuid is '唯一标识 | Unique identifier';
 comment on column adi_knowledge_base_graph_segment.kb_uuid is '所属知识库uuid |adi_knowledge_base UUID';
 comment on column adi_knowledge_base_graph_segment.kb_item_uuid is '所属知识点uuid | adi_knowledge_base_item UUID';
 comment on column adi_knowledge_base_graph_segment.remark is '内容 | Content';
+comment on column adi_knowledge_base_graph_segment.segment_index is '文本块在知识点中的序号 | Segment index in the knowledge base item';
+comment on column adi_knowledge_base_graph_segment.extract_status is '抽取状态, 1:待抽取,2:已抽取,3:已写入图谱 | Extract Status, 1: Waiting, 2: Extracted, 3: Stored';
+comment on column adi_knowledge_base_graph_segment.llm_response is 'LLM抽取的实体及关系 | Entities and relationships extracted by LLM';
+comment on column adi_knowledge_base_graph_segment.ai_model_id is '抽取使用的模型id | adi_ai_model ID used for extraction';
 comment on column adi_knowledge_base_graph_segment.user_id is '所属用户 | adi_user ID';
 comment on column adi_knowledge_base_graph_segment.create_time is '创建时间 | Creation Time';
 comment on column adi_knowledge_base_graph_segment.update_time is '更新时间 | Update Time';
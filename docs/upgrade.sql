@@ -0,0 +1,74 @@
+-- 已有数据库的升级语句，新安装直接执行create.sql即可
+-- Upgrade statements for existing databases; fresh installs only need create.sql
+
+-- 图谱抽取断点：文本块序号、抽取状态、抽取结果及抽取使用的模型，模型变化后不再复用抽取结果
+-- Graph extraction checkpoints: segment index, extract status, extraction result and the model used, results are not reused after the model changes
+ALTER TABLE adi_knowledge_base_graph_segment
+    ADD COLUMN IF NOT EXISTS segment_index int DEFAULT -1 NOT NULL,
+    ADD COLUMN IF NOT EXISTS extract_status int DEFAULT 1 NOT NULL,
+    ADD COLUMN IF NOT EXISTS llm_response text DEFAULT '' NOT NULL,
+    ADD COLUMN IF NOT EXISTS ai_model_id bigint DEFAULT 0 NOT NULL;
+-- 旧版本的文本块(序号为-1)在写入图谱前保存，视为已写入图谱，不再作为断点重新抽取
+-- Segments saved by older versions (segment_index = -1) are treated as stored and never re-extracted
+UPDATE adi_knowledge_base_graph_segment
+SET extract_status = 3
+WHERE segment_index = -1
+  AND extract_status = 1;
+CREATE INDEX IF NOT EXISTS idx_kb_graph_segment_kb_item_uuid ON adi_knowledge_base_graph_segment (kb_item_uuid);
+comment on column adi_knowledge_base_graph_segment.segment_index is '文本块在知识点中的序号 | Segment index in the knowledge base item';
+comment on column adi_knowledge_base_graph_segment.extract_status is '抽取状态, 1:待抽取,2:已抽取,3:已写入图谱 | Extract Status, 1: Waiting, 2: Extracted, 3: Stored';
+comment on column adi_knowledge_base_graph_segment.llm_response is 'LLM抽取的实体及关系 | Entities and relationships extracted by LLM';
+comment on column adi_knowledge_base_graph_segment.ai_model_id is '抽取使用的模型id | adi_ai_model ID used for extraction';
+
+-- 知识库统计：字符数、图谱顶点数、图谱边数
+-- Knowledge base statistics: number of characters, graph vertices and graph edges
+ALTER TABLE adi_knowledge_base
+    ADD COLUMN IF NOT EXISTS char_count bigint DEFAULT 0 NOT NULL,
+    ADD COLUMN IF NOT EXISTS graph_vertex_count int DEFAULT 0 NOT NULL,
+    ADD COLUMN IF NOT EXISTS graph_edge_count int DEFAULT 0 NOT NULL;
+comment on column adi_knowledge_base.char_count is '知识点内容的字符数 | Number of Characters of Knowledge Items';
+comment on column adi_knowledge_base.graph_vertex_count is '图谱顶点数 | Number of Graph Vertices';
+comment on column adi_knowledge_base.graph_edge_count is '图谱边数 | Number of Graph Edges';
+-- 回填已有知识库的字符数；图谱顶点数及边数保存在图数据库中，由定时对账任务(adi.kb-statistic.reconcile-cron，默认每天03:30)重新统计
+-- Backfill char_count of existing knowledge bases; graph vertex/edge counts live in the graph database and are filled by the reconcile job (adi.kb-statistic.reconcile-cron, 03:30 daily by default)
+UPDATE adi_knowledge_base kb
+SET char_count = (SELECT coalesce(sum(char_length(item.remark)), 0)
+                  FROM adi_knowledge_base_item item
+                  WHERE item.kb_uuid = kb.uuid
+                    AND item.is_deleted = false)
+WHERE kb.is_deleted = false;
+
+-- 向量表常用的metadata字段生成为独立列并建立索引；增加生成列会重写整张表，应在业务低峰期执行
+-- Generated columns and indexes for frequently filtered metadata keys; adding a stored generated column rewrites the table, run off-peak
+ALTER TABLE adi_knowledge_base_embedding
+    ADD COLUMN IF NOT EXISTS kb_uuid text GENERATED ALWAYS AS ((metadata ->> 'kb_uuid')) STORED;
+ALTER TABLE adi_knowledge_base_embedding
+    ADD COLUMN IF NOT EXISTS kb_item_uuid text GENERATED ALWAYS AS ((metadata ->> 'kb_item_uuid')) STORED;
+CREATE INDEX CONCURRENTLY IF NOT EXISTS adi_knowledge_base_embedding_kb_uuid_idx ON adi_knowledge_base_embedding (kb_uuid);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS adi_knowledge_base_embedding_kb_item_uuid_idx ON adi_knowledge_base_embedding (kb_item_uuid);
+ALTER TABLE adi_ai_search_embedding
+    ADD COLUMN IF NOT EXISTS search_uuid text GENERATED ALWAYS AS ((metadata ->> 'search_uuid')) STORED;
+CREATE INDEX CONCURRENTLY IF NOT EXISTS adi_ai_search_embedding_search_uuid_idx ON adi_ai_search_embedding (search_uuid);
+
+-- 用户每天消耗按(user_id, day, is_free)唯一，建唯一索引前把重复记录合并到id最小的一行
+-- Merge duplicate (user_id, day, is_free) rows of adi_user_day_cost into the lowest id before adding the unique index
+UPDATE adi_user_day_cost t
+SET tokens        = d.tokens,
+    draw_times    = d.draw_times,
+    request_times = d.request_times
+FROM (SELECT min(id)            AS id,
+             sum(tokens)        AS tokens,
+             sum(draw_times)    AS draw_times,
+             sum(request_times) AS request_times
+      FROM adi_user_day_cost
+      GROUP BY user_id, day, is_free
+      HAVING count(1) > 1) d
+WHERE t.id = d.id;
+DELETE
+FROM adi_user_day_cost t
+    USING adi_user_day_cost k
+WHERE t.user_id = k.user_id
+  AND t.day = k.day
+  AND t.is_free = k.is_free
+  AND t.id > k.id;
+CREATE UNIQUE INDEX IF NOT EXISTS udx_user_day_cost ON adi_user_day_cost (user_id, day, is_free);